@@ -7,6 +7,7 @@ import com.google.gson.TypeAdapterFactory;
 import com.google.gson.reflect.TypeToken;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
+import io.github.gaming32.superpack.install.CacheLinkMode;
 import io.github.gaming32.superpack.labrinth.LabrinthGson;
 import io.github.gaming32.superpack.themes.Theme;
 import io.github.gaming32.superpack.themes.Themes;
@@ -78,6 +79,15 @@ public final class SuperpackSettings {
 
     private Theme theme = Themes.DEFAULT;
     private int parallelDownloadCount = Runtime.getRuntime().availableProcessors() - 1;
+    private int connectTimeout = 10;
+    private int readTimeout = 30;
+    private int hedgeDelay = 3000;
+    private CacheLinkMode cacheLinkMode = CacheLinkMode.CLONE;
+    private int globalDownloadLimit = 0;
+    private int installDownloadLimit = 0;
+    private int hostDownloadLimit = 0;
+    private int downloadCacheLimit = 0;
+    private boolean sequentialExtraction = false;
 
     public Theme getTheme() {
         return theme;
@@ -87,9 +97,131 @@ public final class SuperpackSettings {
         this.theme = theme;
     }
 
+    /**
+     * @return The maximum number of files to download at once. Fewer may be downloaded from a single host if it
+     * can't keep up.
+     */
+    public int getParallelDownloadCount() {
+        return parallelDownloadCount;
+    }
+
+    public void setParallelDownloadCount(int parallelDownloadCount) {
+        this.parallelDownloadCount = parallelDownloadCount;
+    }
+
+    /**
+     * @return The connection timeout for HTTP requests, in seconds
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * @return How long to wait for a response after sending an HTTP request, in seconds
+     */
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * @return How long to wait for a mirror to respond before also trying the next one, in milliseconds, or
+     * {@code 0} to only try mirrors one at a time
+     */
+    public int getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    public void setHedgeDelay(int hedgeDelay) {
+        this.hedgeDelay = hedgeDelay;
+    }
+
+    /**
+     * @return How files are placed in instances from the download cache
+     */
+    public CacheLinkMode getCacheLinkMode() {
+        return cacheLinkMode;
+    }
+
+    public void setCacheLinkMode(CacheLinkMode cacheLinkMode) {
+        this.cacheLinkMode = cacheLinkMode;
+    }
+
+    /**
+     * @return The most bandwidth all downloads together can use, in KiB/s, or {@code 0} for no limit
+     */
+    public int getGlobalDownloadLimit() {
+        return globalDownloadLimit;
+    }
+
+    public void setGlobalDownloadLimit(int globalDownloadLimit) {
+        this.globalDownloadLimit = globalDownloadLimit;
+    }
+
+    /**
+     * @return The most bandwidth a single install can use, in KiB/s, or {@code 0} for no limit
+     */
+    public int getInstallDownloadLimit() {
+        return installDownloadLimit;
+    }
+
+    public void setInstallDownloadLimit(int installDownloadLimit) {
+        this.installDownloadLimit = installDownloadLimit;
+    }
+
+    /**
+     * @return The most bandwidth downloads from a single host can use, in KiB/s, or {@code 0} for no limit
+     */
+    public int getHostDownloadLimit() {
+        return hostDownloadLimit;
+    }
+
+    public void setHostDownloadLimit(int hostDownloadLimit) {
+        this.hostDownloadLimit = hostDownloadLimit;
+    }
+
+    /**
+     * @return The most space the download cache can use, in MiB, or {@code 0} for no limit
+     */
+    public int getDownloadCacheLimit() {
+        return downloadCacheLimit;
+    }
+
+    public void setDownloadCacheLimit(int downloadCacheLimit) {
+        this.downloadCacheLimit = downloadCacheLimit;
+    }
+
+    /**
+     * @return Whether overrides are extracted by reading the pack once from start to finish, instead of in parallel.
+     * This is faster on hard drives, where parallel reads cause seeking.
+     */
+    public boolean isSequentialExtraction() {
+        return sequentialExtraction;
+    }
+
+    public void setSequentialExtraction(boolean sequentialExtraction) {
+        this.sequentialExtraction = sequentialExtraction;
+    }
+
     public void copyTo(SuperpackSettings other) {
         other.theme = theme;
         other.parallelDownloadCount = parallelDownloadCount;
+        other.connectTimeout = connectTimeout;
+        other.readTimeout = readTimeout;
+        other.hedgeDelay = hedgeDelay;
+        other.cacheLinkMode = cacheLinkMode;
+        other.globalDownloadLimit = globalDownloadLimit;
+        other.installDownloadLimit = installDownloadLimit;
+        other.hostDownloadLimit = hostDownloadLimit;
+        other.downloadCacheLimit = downloadCacheLimit;
+        other.sequentialExtraction = sequentialExtraction;
     }
 
     public void copyFrom(SuperpackSettings other) {
@@ -0,0 +1,418 @@
+package io.github.gaming32.superpack.cache;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import io.github.gaming32.superpack.SuperpackKt;
+import io.github.gaming32.superpack.util.GeneralUtilKt;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps running totals of how many files are in each part of the cache and how much space they use, so that they
+ * can be read without walking the cache. Every write to and removal from the cache must be reported here.
+ * <p>
+ * The totals are saved to {@link #FILE_NAME} in the cache directory. Several instances of the app can share a cache,
+ * so each one only saves the changes it made since it last saved, added to whatever's in the file then. The file is
+ * locked while it's being updated, so that no changes are lost.
+ * <p>
+ * Before the first change after a save, the saved totals are marked as having one more unsaved writer, so that if
+ * the app is killed before saving again, the next run counts the cache from scratch rather than trusting totals that
+ * are out of date.
+ */
+public final class CacheIndex {
+    private static final Logger LOGGER = GeneralUtilKt.getLogger();
+
+    public static final String FILE_NAME = "cacheIndex.json";
+    private static final String LOCK_FILE_NAME = FILE_NAME + ".lock";
+    private static final int VERSION = 2;
+
+    public enum Category {
+        DOWNLOAD("downloads", SuperpackKt.DOWNLOAD_CACHE_DIR),
+        ICON("icons", SuperpackKt.ICON_CACHE_DIR);
+
+        private final String displayName;
+        private final Path dir;
+
+        Category(String displayName, File dir) {
+            this.displayName = displayName;
+            this.dir = dir.toPath().toAbsolutePath().normalize();
+        }
+
+        @Override
+        public String toString() {
+            return displayName;
+        }
+    }
+
+    public record Totals(long bytes, long files) {
+    }
+
+    /**
+     * The totals as of the last save, plus the changes made since then
+     */
+    private static final Map<Category, Counter> COUNTERS = new EnumMap<>(Category.class);
+    /**
+     * The changes made since the last save
+     */
+    private static final Map<Category, Counter> UNSAVED = new EnumMap<>(Category.class);
+    /**
+     * Changes hold the read lock, so that saves, which hold the write lock, never see a change that's only been
+     * partly made. Anything that touches the index file also synchronizes on this class, since file locks can't be
+     * shared between threads.
+     */
+    private static final ReadWriteLock LOCK = new ReentrantReadWriteLock();
+    private static volatile boolean loaded;
+    /**
+     * Whether this instance is counted as an unsaved writer in the index file
+     */
+    private static volatile boolean dirty;
+
+    static {
+        for (final Category category : Category.values()) {
+            COUNTERS.put(category, new Counter());
+            UNSAVED.put(category, new Counter());
+        }
+    }
+
+    private CacheIndex() {
+    }
+
+    /**
+     * @return The size of {@code file}, or {@code -1} if it doesn't exist. Pass this to
+     * {@link #fileWritten(File, long)} after writing the file.
+     */
+    public static long sizeOf(File file) {
+        return file.isFile() ? file.length() : -1;
+    }
+
+    /**
+     * Records that {@code file} was written. Files outside the cache are ignored.
+     * @param oldSize The size of the file before it was written, from {@link #sizeOf(File)}.
+     */
+    public static void fileWritten(File file, long oldSize) {
+        final Category category = categoryOf(file);
+        if (category == null) return;
+        final long newSize = file.length();
+        change(category, newSize - Math.max(oldSize, 0), oldSize < 0 ? 1 : 0);
+    }
+
+    /**
+     * Records that {@code file}, which was {@code size} bytes, was removed. Files outside the cache are ignored.
+     */
+    public static void fileRemoved(File file, long size) {
+        final Category category = categoryOf(file);
+        if (category == null) return;
+        change(category, -size, -1);
+    }
+
+    /**
+     * @return The totals as of the last {@link #save()}, plus the changes made by this instance since then. Call
+     * {@link #save()} first to pick up changes made by other instances.
+     */
+    public static Totals getTotals(Category category) {
+        ensureLoaded();
+        final Counter counter = COUNTERS.get(category);
+        return new Totals(counter.bytes.get(), counter.files.get());
+    }
+
+    /**
+     * Counts the cache from scratch. This should be called after the cache is cleared.
+     */
+    public static void recount() {
+        LOCK.writeLock().lock();
+        try {
+            synchronized (CacheIndex.class) {
+                try (FileChannel ignored = lockIndexFile()) {
+                    recount0();
+                    write(0);
+                } catch (IOException e) {
+                    LOGGER.error("Failed to save cache index", e);
+                }
+                dirty = false;
+            }
+            if (!loaded) {
+                loaded = true;
+                Runtime.getRuntime().addShutdownHook(new Thread(CacheIndex::save, "SaveCacheIndex"));
+            }
+        } finally {
+            LOCK.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the changes made by this instance to the saved totals, and picks up the changes saved by other instances.
+     * Failures are logged.
+     */
+    public static void save() {
+        ensureLoaded();
+        LOCK.writeLock().lock();
+        try {
+            synchronized (CacheIndex.class) {
+                try (FileChannel ignored = lockIndexFile()) {
+                    final Snapshot saved = read();
+                    if (saved != null) {
+                        for (final Category category : Category.values()) {
+                            final Totals totals = saved.totals.get(category);
+                            final Counter unsaved = UNSAVED.get(category);
+                            final Counter counter = COUNTERS.get(category);
+                            counter.bytes.set(totals.bytes() + unsaved.bytes.get());
+                            counter.files.set(totals.files() + unsaved.files.get());
+                        }
+                    }
+                    if (!dirty) return;
+                    write(saved != null ? Math.max(saved.unsavedWriters - 1, 0) : 0);
+                    for (final Counter unsaved : UNSAVED.values()) {
+                        unsaved.bytes.set(0);
+                        unsaved.files.set(0);
+                    }
+                    dirty = false;
+                } catch (IOException e) {
+                    LOGGER.error("Failed to save cache index", e);
+                }
+            }
+        } finally {
+            LOCK.writeLock().unlock();
+        }
+    }
+
+    private static void change(Category category, long bytes, long files) {
+        ensureLoaded();
+        LOCK.readLock().lock();
+        try {
+            if (!dirty) {
+                markDirty();
+            }
+            for (final Counter counter : new Counter[] {COUNTERS.get(category), UNSAVED.get(category)}) {
+                counter.bytes.addAndGet(bytes);
+                counter.files.addAndGet(files);
+            }
+        } finally {
+            LOCK.readLock().unlock();
+        }
+    }
+
+    private static synchronized void markDirty() {
+        if (dirty) return;
+        dirty = true;
+        try (FileChannel ignored = lockIndexFile()) {
+            final Snapshot saved = read();
+            if (saved != null) {
+                writeSnapshot(new Snapshot(saved.totals, saved.unsavedWriters + 1));
+            } else {
+                write(1);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to mark cache index as dirty", e);
+        }
+    }
+
+    private static Category categoryOf(File file) {
+        final Path path = file.toPath().toAbsolutePath().normalize();
+        if (path.getFileName().toString().endsWith(".part")) {
+            return null;
+        }
+        for (final Category category : Category.values()) {
+            if (path.startsWith(category.dir)) {
+                return category;
+            }
+        }
+        return null;
+    }
+
+    private static void ensureLoaded() {
+        if (loaded) return;
+        LOCK.writeLock().lock();
+        try {
+            if (loaded) return;
+            synchronized (CacheIndex.class) {
+                try (FileChannel ignored = lockIndexFile()) {
+                    if (!load()) {
+                        recount0();
+                        // Anything that was unsaved has just been counted
+                        write(0);
+                    }
+                } catch (IOException e) {
+                    LOGGER.error("Failed to load cache index", e);
+                    recount0();
+                }
+            }
+            loaded = true;
+            Runtime.getRuntime().addShutdownHook(new Thread(CacheIndex::save, "SaveCacheIndex"));
+        } finally {
+            LOCK.writeLock().unlock();
+        }
+    }
+
+    private static boolean load() {
+        final Snapshot saved = read();
+        if (saved == null) {
+            return false;
+        }
+        if (saved.unsavedWriters > 0) {
+            LOGGER.info("Cache index has unsaved changes. Counting cache.");
+            return false;
+        }
+        for (final Category category : Category.values()) {
+            final Totals totals = saved.totals.get(category);
+            COUNTERS.get(category).bytes.set(totals.bytes());
+            COUNTERS.get(category).files.set(totals.files());
+        }
+        return true;
+    }
+
+    /**
+     * @return What's saved in the index file, or {@code null} if it's missing or can't be read
+     */
+    private static Snapshot read() {
+        final Path indexFile = getIndexFile();
+        final Map<Category, Totals> totals = new EnumMap<>(Category.class);
+        for (final Category category : Category.values()) {
+            totals.put(category, new Totals(0, 0));
+        }
+        int unsavedWriters = 0;
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(indexFile))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "version" -> {
+                        final int version = reader.nextInt();
+                        if (version != VERSION) {
+                            throw new IOException("Unsupported cache index version " + version);
+                        }
+                    }
+                    case "unsavedWriters" -> unsavedWriters = reader.nextInt();
+                    case "categories" -> {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            final Category category = Category.valueOf(reader.nextName().toUpperCase(Locale.ROOT));
+                            long bytes = 0;
+                            long files = 0;
+                            reader.beginObject();
+                            while (reader.hasNext()) {
+                                switch (reader.nextName()) {
+                                    case "bytes" -> bytes = reader.nextLong();
+                                    case "files" -> files = reader.nextLong();
+                                    default -> reader.skipValue();
+                                }
+                            }
+                            reader.endObject();
+                            totals.put(category, new Totals(bytes, files));
+                        }
+                        reader.endObject();
+                    }
+                    default -> reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (NoSuchFileException e) {
+            LOGGER.info("No cache index found. Counting cache.");
+            return null;
+        } catch (Exception e) {
+            LOGGER.warn("Failed to read cache index. Counting cache.", e);
+            return null;
+        }
+        return new Snapshot(totals, unsavedWriters);
+    }
+
+    private static void recount0() {
+        for (final Category category : Category.values()) {
+            final Counter counter = COUNTERS.get(category);
+            counter.bytes.set(0);
+            counter.files.set(0);
+            final Counter unsaved = UNSAVED.get(category);
+            unsaved.bytes.set(0);
+            unsaved.files.set(0);
+            if (!Files.isDirectory(category.dir)) continue;
+            try {
+                Files.walkFileTree(category.dir, new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (attrs.isRegularFile() && !file.getFileName().toString().endsWith(".part")) {
+                            counter.bytes.addAndGet(attrs.size());
+                            counter.files.incrementAndGet();
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                LOGGER.error("Failed to count {} in cache", category, e);
+            }
+        }
+    }
+
+    /**
+     * Saves this instance's totals. The index file must be locked.
+     */
+    private static void write(int unsavedWriters) throws IOException {
+        final Map<Category, Totals> totals = new EnumMap<>(Category.class);
+        for (final Map.Entry<Category, Counter> entry : COUNTERS.entrySet()) {
+            totals.put(entry.getKey(), new Totals(entry.getValue().bytes.get(), entry.getValue().files.get()));
+        }
+        writeSnapshot(new Snapshot(totals, unsavedWriters));
+    }
+
+    private static void writeSnapshot(Snapshot snapshot) throws IOException {
+        final Path indexFile = getIndexFile();
+        final Path tempFile = indexFile.resolveSibling(FILE_NAME + ".tmp");
+        try (JsonWriter writer = new JsonWriter(Files.newBufferedWriter(tempFile))) {
+            writer.beginObject();
+            writer.name("version").value(VERSION);
+            writer.name("unsavedWriters").value(snapshot.unsavedWriters);
+            writer.name("categories").beginObject();
+            for (final Map.Entry<Category, Totals> entry : snapshot.totals.entrySet()) {
+                writer.name(entry.getKey().name().toLowerCase(Locale.ROOT)).beginObject();
+                writer.name("bytes").value(entry.getValue().bytes());
+                writer.name("files").value(entry.getValue().files());
+                writer.endObject();
+            }
+            writer.endObject();
+            writer.endObject();
+        }
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Locks the index file against other instances until the returned channel is closed. Callers must also
+     * synchronize on this class.
+     */
+    private static FileChannel lockIndexFile() throws IOException {
+        final Path lockFile = getIndexFile().resolveSibling(LOCK_FILE_NAME);
+        Files.createDirectories(lockFile.getParent());
+        final FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            channel.lock();
+            return channel;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static Path getIndexFile() {
+        return SuperpackKt.CACHE_DIR.toPath().resolve(FILE_NAME);
+    }
+
+    private record Snapshot(Map<Category, Totals> totals, int unsavedWriters) {
+    }
+
+    private static final class Counter {
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong files = new AtomicLong();
+    }
+}
@@ -0,0 +1,201 @@
+package io.github.gaming32.superpack.cache;
+
+import io.github.gaming32.superpack.SuperpackKt;
+import io.github.gaming32.superpack.util.FileHashing;
+import io.github.gaming32.superpack.util.GeneralUtilKt;
+import io.github.gaming32.superpack.util.TokenBucket;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Rehashes files in the download cache in the background, and moves any whose contents don't match the SHA-1 in
+ * their name into {@link #QUARANTINE_DIR}. Installs only check the size of cached files, so without this, a corrupted
+ * cache file would be copied into every instance that uses it.
+ * <p>
+ * Scrubs run on a small pool of low priority threads, and read files at a limited rate unless they were started by
+ * the user, so that they don't slow down anything else.
+ */
+public final class CacheScrubber {
+    private static final Logger LOGGER = GeneralUtilKt.getLogger();
+
+    public static final Path QUARANTINE_DIR = SuperpackKt.CACHE_DIR.toPath().resolve("quarantine");
+    /**
+     * Touched whenever a scrub finishes, so that scrubs can be spaced out across runs
+     */
+    private static final Path LAST_SCRUB_FILE = SuperpackKt.CACHE_DIR.toPath().resolve(".lastScrub");
+    private static final long SCRUB_INTERVAL = TimeUnit.DAYS.toMillis(7);
+    private static final int THREAD_COUNT = 2;
+    private static final long THROTTLED_RATE = 16L * 1024 * 1024;
+    /**
+     * Files modified more recently than this might still be being written
+     */
+    private static final long RECENT_MARGIN = TimeUnit.MINUTES.toMillis(1);
+    private static final Pattern SHA1 = Pattern.compile("[0-9a-f]{40}");
+
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+    private static CompletableFuture<Result> currentScrub;
+    private static volatile boolean throttled;
+
+    private CacheScrubber() {
+    }
+
+    /**
+     * @param verified How many files were checked and found to be intact
+     * @param quarantined How many files were found to be corrupt, and moved to {@link #QUARANTINE_DIR}
+     */
+    public record Result(int verified, int quarantined) {
+    }
+
+    /**
+     * Starts a throttled scrub in the background if there hasn't been one in a while.
+     */
+    public static void startIfDue() {
+        try {
+            final FileTime lastScrub = Files.getLastModifiedTime(LAST_SCRUB_FILE);
+            if (System.currentTimeMillis() - lastScrub.toMillis() < SCRUB_INTERVAL) return;
+        } catch (NoSuchFileException e) {
+            // Never scrubbed
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read {}", LAST_SCRUB_FILE, e);
+        }
+        scrub(true);
+    }
+
+    /**
+     * Starts a scrub, or returns the one that's already running. If {@code throttled} is {@code false}, a running
+     * scrub stops being throttled.
+     */
+    public static synchronized CompletableFuture<Result> scrub(boolean throttled) {
+        if (currentScrub != null && !currentScrub.isDone()) {
+            if (!throttled) {
+                CacheScrubber.throttled = false;
+            }
+            return currentScrub;
+        }
+        CacheScrubber.throttled = throttled;
+        final CompletableFuture<Result> future = new CompletableFuture<>();
+        final Thread thread = new Thread(() -> {
+            try {
+                future.complete(scrub0());
+            } catch (Throwable t) {
+                LOGGER.error("Cache scrub failed", t);
+                future.completeExceptionally(t);
+            }
+        }, "CacheScrubber");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return currentScrub = future;
+    }
+
+    private static Result scrub0() throws IOException, InterruptedException {
+        final Path root = SuperpackKt.DOWNLOAD_CACHE_DIR.toPath();
+        if (!Files.isDirectory(root)) {
+            return new Result(0, 0);
+        }
+        LOGGER.info("Scrubbing download cache{}", throttled ? " in the background" : "");
+        final long startTime = System.currentTimeMillis();
+        final TokenBucket throttle = new TokenBucket(() -> throttled ? THROTTLED_RATE : 0);
+        final AtomicInteger verified = new AtomicInteger();
+        final AtomicInteger quarantined = new AtomicInteger();
+
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            THREAD_COUNT, THREAD_COUNT,
+            0, TimeUnit.MILLISECONDS,
+            // Bounded, so that the walk doesn't get far ahead of the hashing
+            new ArrayBlockingQueue<>(64),
+            r -> {
+                final Thread thread = new Thread(r, "Scrubber-" + THREAD_NUMBER.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    final String sha1 = root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "");
+                    if (!attrs.isRegularFile() || !SHA1.matcher(sha1).matches()) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    executor.execute(() -> {
+                        try {
+                            switch (verify(file, sha1, throttle)) {
+                                case INTACT -> verified.incrementAndGet();
+                                case QUARANTINED -> quarantined.incrementAndGet();
+                            }
+                        } catch (NoSuchFileException e) {
+                            // Evicted or cleared while scrubbing
+                        } catch (IOException e) {
+                            LOGGER.warn("Failed to scrub {}", file, e);
+                        }
+                    });
+                    return Thread.currentThread().isInterrupted() ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } finally {
+            executor.shutdown();
+            //noinspection ResultOfMethodCallIgnored
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+
+        CacheIndex.save();
+        try {
+            Files.createDirectories(LAST_SCRUB_FILE.getParent());
+            Files.write(LAST_SCRUB_FILE, new byte[0]);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write {}", LAST_SCRUB_FILE, e);
+        }
+        final Result result = new Result(verified.get(), quarantined.get());
+        LOGGER.info(
+            "Scrubbed download cache in {}. {} file(s) intact, {} file(s) quarantined.",
+            GeneralUtilKt.prettyDuration(System.currentTimeMillis() - startTime),
+            result.verified(), result.quarantined()
+        );
+        return result;
+    }
+
+    private enum Outcome {
+        INTACT, QUARANTINED, SKIPPED
+    }
+
+    private static Outcome verify(Path file, String expectedSha1, TokenBucket throttle) throws IOException {
+        final BasicFileAttributes before = Files.readAttributes(file, BasicFileAttributes.class);
+        if (System.currentTimeMillis() - before.lastModifiedTime().toMillis() < RECENT_MARGIN) {
+            return Outcome.SKIPPED;
+        }
+        final MessageDigest digest = GeneralUtilKt.getSha1();
+        FileHashing.update(digest, file, before.size(), throttle);
+        if (GeneralUtilKt.toHexString(digest.digest()).equals(expectedSha1)) {
+            return Outcome.INTACT;
+        }
+
+        // The file could have been replaced while it was being hashed
+        final BasicFileAttributes after = Files.readAttributes(file, BasicFileAttributes.class);
+        if (after.size() != before.size() || !after.lastModifiedTime().equals(before.lastModifiedTime())) {
+            return Outcome.SKIPPED;
+        }
+        Files.createDirectories(QUARANTINE_DIR);
+        final Path quarantined = QUARANTINE_DIR.resolve(expectedSha1);
+        Files.move(file, quarantined, StandardCopyOption.REPLACE_EXISTING);
+        CacheIndex.fileRemoved(file.toFile(), before.size());
+        LOGGER.warn("Cache file {} doesn't match its SHA-1. Moved it to {}.", file, quarantined);
+        return Outcome.QUARANTINED;
+    }
+}
@@ -0,0 +1,170 @@
+package io.github.gaming32.superpack.cache;
+
+import io.github.gaming32.superpack.MyPacks;
+import io.github.gaming32.superpack.SuperpackKt;
+import io.github.gaming32.superpack.SuperpackSettings;
+import io.github.gaming32.superpack.modpack.Modpack;
+import io.github.gaming32.superpack.modpack.ModpackFile;
+import io.github.gaming32.superpack.modpack.ModpackType;
+import io.github.gaming32.superpack.util.GeneralUtilKt;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.zip.ZipFile;
+
+/**
+ * Keeps the download cache under the size set by {@link SuperpackSettings#getDownloadCacheLimit()}, evicting the
+ * least recently used files first.
+ * <p>
+ * Files are never evicted while they're pinned. Packs in My Packs are pinned, along with every file they reference,
+ * so that reinstalling a saved pack never needs to download anything again. Use times are tracked with each file's
+ * last access time, which is set explicitly on every cache hit, since many filesystems are mounted without updating
+ * it on reads.
+ */
+public final class DownloadCache {
+    private static final Logger LOGGER = GeneralUtilKt.getLogger();
+
+    private DownloadCache() {
+    }
+
+    /**
+     * @return The most space the download cache should use, in bytes, or {@code 0} for no limit
+     */
+    public static long getLimit() {
+        return SuperpackSettings.INSTANCE.getDownloadCacheLimit() * 1024L * 1024L;
+    }
+
+    /**
+     * Records that {@code cacheFile} was just used, so that it's evicted after files that haven't been used since.
+     * Failures are logged and otherwise ignored.
+     */
+    public static void touch(File cacheFile) {
+        try {
+            Files.getFileAttributeView(cacheFile.toPath(), BasicFileAttributeView.class)
+                .setTimes(null, FileTime.fromMillis(System.currentTimeMillis()), null);
+        } catch (IOException e) {
+            LOGGER.debug("Failed to update access time of {}", cacheFile, e);
+        }
+    }
+
+    /**
+     * Evicts files until the cache fits in {@link #getLimit()}. Does nothing if there's no limit.
+     * @param extraPins Cache files to keep along with the ones used by My Packs, such as the files of a pack that
+     *                  was just installed.
+     * @return The number of bytes freed.
+     */
+    public static synchronized long trim(Collection<File> extraPins) throws IOException {
+        final long limit = getLimit();
+        if (limit <= 0 || !SuperpackKt.DOWNLOAD_CACHE_DIR.isDirectory()) {
+            return 0;
+        }
+        // Only walk the cache once it's known to be too big. Saving first picks up files other instances added.
+        CacheIndex.save();
+        if (CacheIndex.getTotals(CacheIndex.Category.DOWNLOAD).bytes() <= limit) {
+            return 0;
+        }
+
+        final List<Entry> entries = new ArrayList<>();
+        final Path root = SuperpackKt.DOWNLOAD_CACHE_DIR.toPath();
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                // .part files belong to downloads that are still running, or that can be resumed
+                if (attrs.isRegularFile() && !file.getFileName().toString().endsWith(".part")) {
+                    entries.add(new Entry(file, attrs.size(), Math.max(
+                        attrs.lastAccessTime().toMillis(), attrs.lastModifiedTime().toMillis()
+                    )));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                LOGGER.warn("Failed to read {}", file, exc);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        long total = 0;
+        for (final Entry entry : entries) {
+            total += entry.size;
+        }
+        if (total <= limit) {
+            return 0;
+        }
+
+        final Set<Path> pinned = collectPins(extraPins);
+        entries.sort(Comparator.comparingLong(Entry::lastUsed));
+        long freed = 0;
+        int evicted = 0;
+        for (final Entry entry : entries) {
+            if (total - freed <= limit) break;
+            if (pinned.contains(entry.path.toAbsolutePath().normalize())) continue;
+            try {
+                Files.delete(entry.path);
+            } catch (NoSuchFileException e) {
+                continue;
+            } catch (IOException e) {
+                LOGGER.warn("Failed to evict {} from the download cache", entry.path, e);
+                continue;
+            }
+            CacheIndex.fileRemoved(entry.path.toFile(), entry.size);
+            freed += entry.size;
+            evicted++;
+        }
+
+        CacheIndex.save();
+        LOGGER.info(
+            "Evicted {} file(s) ({}) from the download cache",
+            evicted, GeneralUtilKt.getHumanFileSizeExtended(freed)
+        );
+        if (total - freed > limit) {
+            LOGGER.warn(
+                "Download cache is still {} over its limit, because the rest of it is used by My Packs",
+                GeneralUtilKt.getHumanFileSizeExtended(total - freed - limit)
+            );
+        }
+        return freed;
+    }
+
+    /**
+     * Like {@link #trim(Collection)}, but logs failures instead of throwing them.
+     */
+    public static void trimQuietly(Collection<File> extraPins) {
+        try {
+            trim(extraPins);
+        } catch (IOException e) {
+            LOGGER.error("Failed to trim the download cache", e);
+        }
+    }
+
+    private static Set<Path> collectPins(Collection<File> extraPins) {
+        final Set<Path> pinned = new HashSet<>();
+        for (final File file : extraPins) {
+            pinned.add(file.toPath().toAbsolutePath().normalize());
+        }
+        for (final MyPacks.Modpack pack : List.copyOf(MyPacks.INSTANCE.getPacks())) {
+            // Packs downloaded from Modrinth are stored in the cache themselves
+            pinned.add(pack.getPath().toPath().toAbsolutePath().normalize());
+            // CurseForge packs only list project IDs, and looking up their hashes needs the API
+            if (pack.getType() != ModpackType.MODRINTH || !pack.getPath().isFile()) continue;
+            try (Modpack modpack = Modpack.open(new ZipFile(pack.getPath()))) {
+                for (final ModpackFile file : modpack.getAllFiles()) {
+                    pinned.add(file.getCacheFile().toPath().toAbsolutePath().normalize());
+                }
+            } catch (Exception e) {
+                LOGGER.warn("Failed to read {} to pin its files", pack.getPath(), e);
+            }
+        }
+        return pinned;
+    }
+
+    private record Entry(Path path, long size, long lastUsed) {
+    }
+}
@@ -0,0 +1,129 @@
+package io.github.gaming32.superpack.install;
+
+import io.github.gaming32.superpack.util.GeneralUtilKt;
+import io.github.gaming32.superpack.util.HttpStatusException;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how many downloads can run against a single host at once, adjusting the limit with AIMD (additive
+ * increase, multiplicative decrease) as downloads finish.
+ * <p>
+ * The limit starts low and grows by one for each successful download until the host first pushes back, after
+ * which it grows by about one for each round of downloads. It's halved whenever the host throttles us (HTTP 429 or
+ * 503), times out, or refuses connections, and when a round of downloads is much slower than the best recent round,
+ * since more connections aren't helping at that point.
+ */
+final class AdaptiveLimiter {
+    private static final Logger LOGGER = GeneralUtilKt.getLogger();
+
+    private static final int INITIAL_LIMIT = 4;
+    /**
+     * A round with less throughput than this fraction of the best recent round counts as congestion
+     */
+    private static final double THROUGHPUT_DROP = 0.6;
+    /**
+     * How much the best recent throughput decays after each round, so that old measurements stop mattering
+     */
+    private static final double THROUGHPUT_DECAY = 0.9;
+    /**
+     * Decreases closer together than this are treated as one, since they're likely caused by the same congestion
+     */
+    private static final long DECREASE_COOLDOWN = TimeUnit.SECONDS.toNanos(2);
+
+    private final String host;
+    private final int ceiling;
+
+    private double limit;
+    private int inFlight;
+    private boolean slowStart = true;
+    private long lastDecrease = System.nanoTime() - DECREASE_COOLDOWN;
+
+    private long roundStart = System.nanoTime();
+    private long roundBytes;
+    private int roundCompletions;
+    private double bestThroughput;
+
+    AdaptiveLimiter(String host, int ceiling) {
+        this.host = host;
+        this.ceiling = Math.max(ceiling, 1);
+        limit = Math.min(INITIAL_LIMIT, this.ceiling);
+    }
+
+    synchronized void acquire() throws InterruptedException {
+        while (inFlight >= (int)limit) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    /**
+     * Acquires up to {@code max} permits, but only ones that are free right now.
+     * @return How many permits were acquired. These must be released with {@link #release(int)}.
+     */
+    synchronized int tryAcquire(int max) {
+        final int acquired = Math.max(0, Math.min(max, (int)limit - inFlight));
+        inFlight += acquired;
+        return acquired;
+    }
+
+    synchronized void release() {
+        release(1);
+    }
+
+    synchronized void release(int count) {
+        if (count <= 0) return;
+        inFlight -= count;
+        notifyAll();
+    }
+
+    /**
+     * Should be called before {@link #release()} when a download succeeds.
+     * @param bytes How many bytes were downloaded.
+     */
+    synchronized void onSuccess(long bytes) {
+        limit = Math.min(ceiling, limit + (slowStart ? 1 : 1 / limit));
+        roundBytes += bytes;
+        if (++roundCompletions < Math.max((int)limit, INITIAL_LIMIT)) return;
+
+        final long now = System.nanoTime();
+        final double throughput = roundBytes / Math.max((now - roundStart) / 1e9, 1e-3);
+        if (throughput < bestThroughput * THROUGHPUT_DROP) {
+            decrease("throughput dropped to " + GeneralUtilKt.getHumanFileSize((long)throughput) + "/s");
+        } else {
+            bestThroughput = Math.max(bestThroughput * THROUGHPUT_DECAY, throughput);
+        }
+        roundStart = now;
+        roundBytes = 0;
+        roundCompletions = 0;
+    }
+
+    /**
+     * Should be called before {@link #release()} when a download fails.
+     */
+    synchronized void onFailure(IOException e) {
+        if (isCongestion(e)) {
+            decrease(e.toString());
+        }
+    }
+
+    private void decrease(String reason) {
+        final long now = System.nanoTime();
+        if (now - lastDecrease < DECREASE_COOLDOWN) return;
+        lastDecrease = now;
+        slowStart = false;
+        limit = Math.max(1, limit / 2);
+        LOGGER.info("Reducing parallel downloads from {} to {} ({})", host, (int)limit, reason);
+    }
+
+    private static boolean isCongestion(IOException e) {
+        if (e instanceof HttpStatusException status) {
+            return status.getStatusCode() == 429 || status.getStatusCode() == 503;
+        }
+        return e instanceof HttpTimeoutException || e instanceof ConnectException;
+    }
+}
@@ -0,0 +1,75 @@
+package io.github.gaming32.superpack.install;
+
+import io.github.gaming32.superpack.util.ChannelIO;
+import io.github.gaming32.superpack.util.FileCloning;
+import io.github.gaming32.superpack.util.GeneralUtilKt;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * How files are placed in an instance from the download cache. Every mode falls back to copying when the files are
+ * on different filesystems, or the filesystem doesn't support anything better.
+ */
+public enum CacheLinkMode {
+    /**
+     * Always make a full copy.
+     */
+    COPY("Copy"),
+    /**
+     * Make a copy-on-write clone where supported. Clones take no extra space until they're modified, and modifying
+     * one never affects the cache.
+     */
+    CLONE("Clone where supported"),
+    /**
+     * Clone where supported, and hard link otherwise. Hard links never take extra space, but modifying a file in
+     * place in one instance modifies it everywhere.
+     */
+    HARDLINK("Clone or hard link where supported");
+
+    private static final Logger LOGGER = GeneralUtilKt.getLogger();
+
+    private final String displayName;
+
+    CacheLinkMode(String displayName) {
+        this.displayName = displayName;
+    }
+
+    /**
+     * Places {@code cacheFile} at {@code dest}, replacing {@code dest} if it exists.
+     */
+    public void place(Path cacheFile, Path dest) throws IOException {
+        if (this == HARDLINK && isLinkTo(dest, cacheFile)) return;
+        if (this != COPY) {
+            if (FileCloning.tryClone(cacheFile, dest)) return;
+            if (this == HARDLINK && tryHardLink(cacheFile, dest)) return;
+        }
+        ChannelIO.copy(cacheFile, dest);
+    }
+
+    private static boolean isLinkTo(Path dest, Path cacheFile) {
+        try {
+            return Files.exists(dest) && Files.isSameFile(dest, cacheFile);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean tryHardLink(Path cacheFile, Path dest) {
+        try {
+            Files.deleteIfExists(dest);
+            Files.createLink(dest, cacheFile);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.debug("Failed to hard link {} to {}", dest, cacheFile, e);
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return displayName;
+    }
+}
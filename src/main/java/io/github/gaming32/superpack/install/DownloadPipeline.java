@@ -0,0 +1,309 @@
+package io.github.gaming32.superpack.install;
+
+import io.github.gaming32.superpack.util.GeneralUtilKt;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+
+/**
+ * Moves a download from the network to disk in stages, so that the thread reading from the network never waits for
+ * the disk or for hashing. The reading thread hands chunks to a disk writer, which hands them on to a hasher once
+ * they're written. Writers and hashers are shared pools, and each download's chunks go through them in order.
+ * <p>
+ * Only a few chunks can be in flight for each download, so a slow disk or hash still slows down the download
+ * eventually, instead of buffering it all in memory.
+ * <p>
+ * Chunks are hashed after they're written, so the digest always matches what's in the file, even when a download
+ * fails partway through.
+ * <p>
+ * Chunks are reused between downloads, so that downloading many files doesn't allocate new buffers for each one.
+ * Each pipeline can only be used for one transfer.
+ * <p>
+ * If the transfer is interrupted, or a write fails, and the chunks still in flight don't come back promptly, the
+ * pipeline is abandoned. Nothing more is hashed after that, and {@link #isSettled()} returns {@code false}.
+ */
+final class DownloadPipeline {
+    private static final Logger LOGGER = GeneralUtilKt.getLogger();
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    /**
+     * The most chunks a single download can have in flight
+     */
+    private static final int MAX_CHUNKS = 16;
+    /**
+     * The most unused chunks kept around for future downloads
+     */
+    private static final int MAX_SPARE_CHUNKS = 256;
+    /**
+     * How long to wait for an in-flight chunk after a failure before abandoning the pipeline
+     */
+    private static final long ABANDON_TIMEOUT_MILLIS = 100;
+    private static final Queue<ByteBuffer> SPARE_CHUNKS = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger SPARE_CHUNK_COUNT = new AtomicInteger();
+
+    private static final ExecutorService WRITERS = newPool(
+        "DiskWriter", Math.max(4, Runtime.getRuntime().availableProcessors())
+    );
+    private static final ExecutorService HASHERS = newPool("Verifier", Runtime.getRuntime().availableProcessors());
+
+    private final FileChannel out;
+    private final FileChannel tee;
+    private final MessageDigest digest;
+    private final SerialExecutor writer = new SerialExecutor(WRITERS);
+    private final SerialExecutor hasher = new SerialExecutor(HASHERS);
+    private final BlockingQueue<ByteBuffer> freeChunks = new ArrayBlockingQueue<>(MAX_CHUNKS);
+    private int allocatedChunks;
+    private volatile IOException writeFailure;
+    /**
+     * Set while holding {@link #digest}'s lock, so that no hash is in progress once it's set
+     */
+    private volatile boolean abandoned;
+    /**
+     * Only updated by the hasher, and only read once every chunk is back in {@link #freeChunks}
+     */
+    private long transferred;
+
+    /**
+     * @param out Where to write the download.
+     * @param tee Where else to write it, or {@code null}.
+     * @param digest The digest to update with everything that's written.
+     */
+    DownloadPipeline(FileChannel out, FileChannel tee, MessageDigest digest) {
+        this.out = out;
+        this.tee = tee;
+        this.digest = digest;
+    }
+
+    /**
+     * Reads all of {@code is}, writing and hashing it, and waits for everything that was read to be written and
+     * hashed. This waits even if it throws, so that {@link #getTransferred()} can be used afterwards, unless the
+     * pipeline had to be {@linkplain #isSettled() abandoned}.
+     * @param progress Called with the number of bytes read so far.
+     */
+    void transfer(InputStream is, LongConsumer progress) throws IOException {
+        long read = 0;
+        try {
+            while (true) {
+                final ByteBuffer chunk = takeChunk();
+                final int n;
+                try {
+                    n = is.read(chunk.array());
+                } catch (IOException | RuntimeException e) {
+                    freeChunks.add(chunk);
+                    throw e;
+                }
+                if (n == -1) {
+                    freeChunks.add(chunk);
+                    break;
+                }
+                chunk.limit(n);
+                writer.execute(() -> write(chunk));
+                read += n;
+                progress.accept(read);
+                if (writeFailure != null) break;
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        } finally {
+            awaitChunks();
+            releaseChunks();
+        }
+        if (writeFailure != null) {
+            throw writeFailure;
+        }
+    }
+
+    /**
+     * @return How many bytes have been written and hashed
+     */
+    long getTransferred() {
+        return transferred;
+    }
+
+    /**
+     * @return Whether every chunk was written and hashed before {@link #transfer} returned. If not, the digest and
+     * {@link #getTransferred()} don't necessarily match what's in the file.
+     */
+    boolean isSettled() {
+        return !abandoned;
+    }
+
+    private ByteBuffer takeChunk() throws InterruptedIOException {
+        final ByteBuffer chunk = freeChunks.poll();
+        if (chunk != null) {
+            return chunk.clear();
+        }
+        if (allocatedChunks < MAX_CHUNKS) {
+            allocatedChunks++;
+            final ByteBuffer spare = SPARE_CHUNKS.poll();
+            if (spare != null) {
+                SPARE_CHUNK_COUNT.decrementAndGet();
+                return spare.clear();
+            }
+            return ByteBuffer.allocate(CHUNK_SIZE);
+        }
+        try {
+            return freeChunks.take().clear();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void write(ByteBuffer chunk) {
+        if (writeFailure != null) {
+            // Nothing after a failed write can be written, or the file would have a hole in it
+            freeChunks.add(chunk);
+            return;
+        }
+        try {
+            final int length = chunk.limit();
+            while (chunk.hasRemaining()) {
+                out.write(chunk);
+            }
+            if (tee != null) {
+                chunk.position(0);
+                while (chunk.hasRemaining()) {
+                    tee.write(chunk);
+                }
+            }
+            chunk.position(0);
+            hasher.execute(() -> {
+                try {
+                    synchronized (digest) {
+                        if (abandoned) return;
+                        digest.update(chunk.array(), 0, length);
+                        transferred += length;
+                    }
+                } finally {
+                    freeChunks.add(chunk);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            writeFailure = e instanceof IOException ioe ? ioe : new IOException(e);
+            freeChunks.add(chunk);
+        }
+    }
+
+    /**
+     * Waits for every chunk to come back. Once interrupted, or once a write has failed, this only waits briefly for
+     * each chunk, and abandons the pipeline if one doesn't come back in time.
+     */
+    private void awaitChunks() {
+        boolean interrupted = Thread.interrupted();
+        final List<ByteBuffer> chunks = new ArrayList<>(allocatedChunks);
+        while (chunks.size() < allocatedChunks) {
+            try {
+                final ByteBuffer chunk = freeChunks.poll(ABANDON_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (chunk != null) {
+                    chunks.add(chunk);
+                } else if (interrupted || writeFailure != null) {
+                    abandon();
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        freeChunks.addAll(chunks);
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void abandon() {
+        synchronized (digest) {
+            abandoned = true;
+        }
+        if (writeFailure == null) {
+            // Stops the writer from writing anything that's still queued
+            writeFailure = new InterruptedIOException("Download pipeline abandoned");
+        }
+        LOGGER.debug("Abandoned download pipeline with chunks still in flight");
+    }
+
+    /**
+     * Hands this pipeline's chunks on to future downloads.
+     */
+    private void releaseChunks() {
+        ByteBuffer chunk;
+        while ((chunk = freeChunks.poll()) != null) {
+            if (SPARE_CHUNK_COUNT.incrementAndGet() > MAX_SPARE_CHUNKS) {
+                SPARE_CHUNK_COUNT.decrementAndGet();
+                continue;
+            }
+            SPARE_CHUNKS.add(chunk);
+        }
+        allocatedChunks = 0;
+    }
+
+    private static ExecutorService newPool(String name, int threads) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            threads, threads,
+            1, TimeUnit.MINUTES,
+            new LinkedBlockingQueue<>(),
+            r -> {
+                final Thread thread = new Thread(r, name + '-' + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Runs tasks one at a time, in the order they were submitted, on a shared pool.
+     */
+    private static final class SerialExecutor implements Executor {
+        private final Executor pool;
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+        private boolean running;
+
+        SerialExecutor(Executor pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public synchronized void execute(Runnable task) {
+            tasks.add(task);
+            if (!running) {
+                running = true;
+                pool.execute(this::runTasks);
+            }
+        }
+
+        private void runTasks() {
+            while (true) {
+                final Runnable task;
+                synchronized (this) {
+                    task = tasks.poll();
+                    if (task == null) {
+                        running = false;
+                        return;
+                    }
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOGGER.error("Download pipeline task failed", e);
+                }
+            }
+        }
+    }
+}
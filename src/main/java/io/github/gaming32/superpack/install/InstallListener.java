@@ -0,0 +1,50 @@
+package io.github.gaming32.superpack.install;
+
+/**
+ * Receives progress events from a {@link PackInstaller}.
+ * <p>
+ * Every method is called on the thread doing the work (often a worker thread), so implementations that touch
+ * Swing components must move to the EDT themselves. {@link #taskProgress} is called very frequently, and
+ * implementations should coalesce updates rather than doing expensive work on every call.
+ */
+public interface InstallListener {
+    InstallListener NONE = new InstallListener() {
+    };
+
+    /**
+     * @param important Whether the message should be shown to the user, instead of only being logged.
+     */
+    default void message(String message, boolean important) {
+    }
+
+    /**
+     * Called when a new phase (such as downloading files or extracting overrides) starts.
+     * @param total The number of items that will be processed in this phase.
+     * @param workerCount The number of workers that will report progress through {@link #taskProgress}.
+     */
+    default void phaseStarted(int total, int workerCount) {
+    }
+
+    default void overallProgress(String status, int completed, int total) {
+    }
+
+    default void phaseFinished(String status) {
+    }
+
+    default void taskStarted(int worker, String status, long size) {
+    }
+
+    default void taskProgress(int worker, String status, long progress, long size) {
+    }
+
+    default void workerFinished(int worker) {
+    }
+
+    /**
+     * Polled whenever a message is printed. Returning {@code true} aborts the install with an
+     * {@link InterruptedException}.
+     */
+    default boolean isCancelled() {
+        return false;
+    }
+}
@@ -0,0 +1,88 @@
+package io.github.gaming32.superpack.install;
+
+import io.github.gaming32.superpack.SuperpackSettings;
+import io.github.gaming32.superpack.modpack.Side;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+public final class InstallOptions {
+    private File outputDir;
+    private Side side = Side.CLIENT;
+    /**
+     * Paths of optional files that should not be installed
+     */
+    private final Set<String> skippedOptionalFiles = new HashSet<>();
+    private boolean skipOverrides;
+    private int parallelDownloadCount = SuperpackSettings.INSTANCE.getParallelDownloadCount();
+    /**
+     * @see SuperpackSettings#getHedgeDelay()
+     */
+    private int hedgeDelay = SuperpackSettings.INSTANCE.getHedgeDelay();
+    private CacheLinkMode cacheLinkMode = SuperpackSettings.INSTANCE.getCacheLinkMode();
+    /**
+     * @see SuperpackSettings#isSequentialExtraction()
+     */
+    private boolean sequentialExtraction = SuperpackSettings.INSTANCE.isSequentialExtraction();
+
+    public File getOutputDir() {
+        return outputDir;
+    }
+
+    public void setOutputDir(File outputDir) {
+        this.outputDir = outputDir;
+    }
+
+    public Side getSide() {
+        return side;
+    }
+
+    public void setSide(Side side) {
+        this.side = side;
+    }
+
+    public Set<String> getSkippedOptionalFiles() {
+        return skippedOptionalFiles;
+    }
+
+    public boolean isSkipOverrides() {
+        return skipOverrides;
+    }
+
+    public void setSkipOverrides(boolean skipOverrides) {
+        this.skipOverrides = skipOverrides;
+    }
+
+    public int getParallelDownloadCount() {
+        return parallelDownloadCount;
+    }
+
+    public void setParallelDownloadCount(int parallelDownloadCount) {
+        this.parallelDownloadCount = parallelDownloadCount;
+    }
+
+    public int getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    public void setHedgeDelay(int hedgeDelay) {
+        this.hedgeDelay = hedgeDelay;
+    }
+
+    public CacheLinkMode getCacheLinkMode() {
+        return cacheLinkMode;
+    }
+
+    public void setCacheLinkMode(CacheLinkMode cacheLinkMode) {
+        this.cacheLinkMode = cacheLinkMode;
+    }
+
+    public boolean isSequentialExtraction() {
+        return sequentialExtraction;
+    }
+
+    public void setSequentialExtraction(boolean sequentialExtraction) {
+        this.sequentialExtraction = sequentialExtraction;
+    }
+}
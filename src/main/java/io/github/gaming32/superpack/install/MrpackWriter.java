@@ -0,0 +1,126 @@
+package io.github.gaming32.superpack.install;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a Modrinth pack as a single stream, so that each entry is written exactly once. Files that are already
+ * compressed, such as jars, are stored rather than compressed again. The index is buffered in memory and written
+ * last, by {@link #finish()}, so that entries can be added to it while files are being written.
+ * <p>
+ * Entries can only be added once. Use {@link #hasEntry} to check for entries that were already added.
+ */
+public final class MrpackWriter implements Closeable {
+    public static final String INDEX_NAME = "modrinth.index.json";
+
+    private static final Set<String> STORED_EXTENSIONS = Set.of("jar", "zip", "litemod", "mrpack");
+
+    private final ZipOutputStream zip;
+    private final StringWriter indexBuffer = new StringWriter();
+    private final JsonWriter index = new JsonWriter(indexBuffer);
+    private final Set<String> entries = new HashSet<>();
+
+    public MrpackWriter(Path file) throws IOException {
+        zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 65536));
+        index.setIndent("  ");
+    }
+
+    /**
+     * @return The writer for {@code modrinth.index.json}. Nothing written to it is written to the pack until
+     * {@link #finish()} is called.
+     */
+    public JsonWriter index() {
+        return index;
+    }
+
+    public synchronized boolean hasEntry(String name) {
+        return entries.contains(name);
+    }
+
+    public synchronized void putDirectory(String name) throws IOException {
+        if (!name.endsWith("/")) {
+            name += '/';
+        }
+        if (!entries.add(name)) return;
+        zip.putNextEntry(new ZipEntry(name));
+        zip.closeEntry();
+    }
+
+    /**
+     * Copies {@code source} into the pack. If it's stored, it's read twice: once to find its CRC-32, and once to copy
+     * it.
+     */
+    public synchronized void putFile(String name, Path source) throws IOException {
+        if (!shouldStore(name)) {
+            try (InputStream is = Files.newInputStream(source)) {
+                putStream(name, is, -1, -1);
+            }
+            return;
+        }
+        final long size;
+        final CRC32 crc = new CRC32();
+        try (InputStream is = new CheckedInputStream(Files.newInputStream(source), crc)) {
+            size = is.transferTo(OutputStream.nullOutputStream());
+        }
+        try (InputStream is = Files.newInputStream(source)) {
+            putStream(name, is, size, crc.getValue());
+        }
+    }
+
+    /**
+     * Copies {@code is} into the pack.
+     * @param size The number of bytes in {@code is}, or -1 if it's not known.
+     * @param crc The CRC-32 of the contents of {@code is}, or -1 if it's not known. Files can only be stored if
+     *            both this and their size are known up front.
+     */
+    public synchronized void putStream(String name, InputStream is, long size, long crc) throws IOException {
+        if (!entries.add(name)) {
+            throw new IOException("Duplicate entry " + name);
+        }
+        final ZipEntry entry = new ZipEntry(name);
+        if (size >= 0 && crc >= 0 && shouldStore(name)) {
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(size);
+            entry.setCompressedSize(size);
+            entry.setCrc(crc);
+        }
+        zip.putNextEntry(entry);
+        is.transferTo(zip);
+        zip.closeEntry();
+    }
+
+    /**
+     * Writes the index, and finishes the pack. The index must be a complete JSON document by now.
+     */
+    public synchronized void finish() throws IOException {
+        index.flush();
+        if (!entries.add(INDEX_NAME)) {
+            throw new IOException("Duplicate entry " + INDEX_NAME);
+        }
+        zip.putNextEntry(new ZipEntry(INDEX_NAME));
+        zip.write(indexBuffer.toString().getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+        zip.finish();
+    }
+
+    @Override
+    public void close() throws IOException {
+        zip.close();
+    }
+
+    private static boolean shouldStore(String name) {
+        final int dot = name.lastIndexOf('.');
+        return dot != -1 && STORED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,482 @@
+package io.github.gaming32.superpack.install;
+
+import com.google.gson.stream.JsonWriter;
+import io.github.gaming32.superpack.SuperpackKt;
+import io.github.gaming32.superpack.cache.CacheIndex;
+import io.github.gaming32.superpack.cache.DownloadCache;
+import io.github.gaming32.superpack.labrinth.Version;
+import io.github.gaming32.superpack.labrinth.VersionFileLookup;
+import io.github.gaming32.superpack.modpack.*;
+import io.github.gaming32.superpack.modpack.curseforge.CurseForgeModpack;
+import io.github.gaming32.superpack.util.*;
+import kotlin.text.StringsKt;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Converts a CurseForge pack into a Modrinth pack. Files that are on Modrinth are referenced from the index, and the
+ * rest are included in the pack's overrides.
+ * <p>
+ * Referenced files are converted in parallel, using the same number of workers as installs. Each worker downloads
+ * and hashes its files, and the results are written to the new pack in the original order, by whichever worker
+ * finishes the next file in line.
+ * <p>
+ * The pack is written as a stream by {@link MrpackWriter}, so nothing is written to it that doesn't end up in it.
+ */
+public final class PackConverter {
+    private static final Logger LOGGER = GeneralUtilKt.getLogger();
+
+    private static final Set<String> MR_LOOKUP_EXTENSIONS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        MR_LOOKUP_EXTENSIONS.addAll(Set.of("jar", "litemod", "zip", "mrpack"));
+    }
+
+    private final Modpack pack;
+    private final InstallOptions options;
+    private final InstallListener listener;
+    private final PackInstaller installer;
+    private final VersionFileLookup lookup = new VersionFileLookup();
+
+    public PackConverter(Modpack pack, InstallOptions options, InstallListener listener) {
+        this.pack = pack;
+        this.options = options;
+        this.listener = listener;
+        installer = new PackInstaller(pack, options, listener);
+    }
+
+    private void println(String s, boolean important) throws InterruptedException {
+        installer.println(s, important);
+    }
+
+    /**
+     * Writes the converted pack to {@code destFile}, replacing it if it already exists.
+     */
+    public ConversionResult convert(Path destFile) throws Exception {
+        final long startTime = System.currentTimeMillis();
+        println("Converting pack", true);
+
+        final List<ModpackFile> overridesFiles = new ArrayList<>();
+        final List<ModpackFile> thirdPartyDisabled = new CopyOnWriteArrayList<>();
+
+        try (MrpackWriter out = new MrpackWriter(destFile)) {
+            final JsonWriter writer = out.index();
+            writer.beginObject();
+            writer.name("formatVersion").value(1);
+            writer.name("game").value("minecraft");
+            writer.name("versionId").value(pack.getVersion());
+            writer.name("name").value(pack.getName());
+            // CurseForge packs don't have a summary, but they do have an author (and mrpacks don't)
+            writer.name("summary").value(pack.getName() + " by " + ((CurseForgeModpack)pack).getManifest().get("author").getAsString());
+
+            writer.name("files").beginArray();
+
+            // Overrides go first, so that they can take precedence over referenced files with the same path
+            final Set<String> indexedOverrides = convertOverrides(out);
+            convertFiles(out, indexedOverrides, overridesFiles, thirdPartyDisabled);
+
+            writer.endArray();
+
+            writer.name("dependencies").beginObject();
+            final ModpackVersions versions = pack.getVersions();
+            writer.name("minecraft").value(versions.getMinecraft());
+            if (versions.getForge() != null) {
+                writer.name("forge").value(versions.getForge());
+            }
+            if (versions.getFabricLoader() != null) {
+                writer.name("fabric-loader").value(versions.getFabricLoader());
+            }
+            if (versions.getQuiltLoader() != null) {
+                writer.name("quilt-loader").value(versions.getQuiltLoader());
+            }
+            writer.endObject();
+            writer.endObject();
+
+            out.finish();
+        }
+
+        return new ConversionResult(startTime, List.copyOf(overridesFiles), List.copyOf(thirdPartyDisabled));
+    }
+
+    private void convertFiles(
+        MrpackWriter out,
+        Set<String> indexedOverrides,
+        List<ModpackFile> overridesFiles,
+        List<ModpackFile> thirdPartyDisabled
+    ) throws Exception {
+        final List<ModpackFile> files = pack.getAllFiles();
+
+        println("\nLooking up referenced files on Modrinth", true);
+        final List<byte[]> knownSha1s = new ArrayList<>();
+        for (final ModpackFile file : files) {
+            final byte[] sha1 = file.getHashes().get("sha1");
+            if (sha1 != null) {
+                knownSha1s.add(sha1);
+            }
+        }
+        Map<String, Version> modrinthVersions;
+        try {
+            modrinthVersions = lookup.lookupSha1(knownSha1s);
+        } catch (IOException e) {
+            LOGGER.error("Failed to look up files on Modrinth", e);
+            println("Failed to look up files on Modrinth. Including them in overrides.", true);
+            modrinthVersions = Map.of();
+        }
+        final Map<String, Version> modrinthVersions0 = modrinthVersions;
+
+        println("\nConverting referenced files", true);
+        final OrderedWriter orderedWriter = new OrderedWriter(files.size(), converted -> {
+            if (converted.file == null) return;
+            final String overridesPath = "overrides/" + converted.file.getPath();
+            if (out.hasEntry(overridesPath) || indexedOverrides.contains(converted.file.getPath())) {
+                LOGGER.info("Skipping {} because it's also in the pack's overrides", converted.file.getPath());
+                return;
+            }
+            if (converted.versionFile != null) {
+                writeIndexEntry(
+                    out.index(),
+                    converted.file.getPath(),
+                    converted.versionFile,
+                    // These are actually the same lol
+                    converted.file.getCompatibility(Side.CLIENT).name().toLowerCase(Locale.ROOT),
+                    converted.file.getCompatibility(Side.SERVER).name().toLowerCase(Locale.ROOT),
+                    converted.file.getSize()
+                );
+            } else if (converted.overrideSource != null) {
+                out.putFile(overridesPath, converted.overrideSource.toPath());
+                overridesFiles.add(converted.file);
+            }
+        });
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger convertedCount = new AtomicInteger();
+        final int parallelCount = Math.min(files.size(), options.getParallelDownloadCount());
+        listener.phaseStarted(files.size(), parallelCount);
+        WorkerPool.runParallel(parallelCount, tid -> {
+            final MultiMessageDigest digest = new MultiMessageDigest(
+                GeneralUtilKt.getSha1(),
+                MessageDigest.getInstance("MD5"),
+                MessageDigest.getInstance("SHA-512")
+            );
+            while (true) {
+                final int i = next.getAndIncrement();
+                if (i >= files.size()) break;
+                final ModpackFile file = files.get(i);
+                listener.overallProgress("Converting files...", convertedCount.get(), files.size());
+                final ConvertedFile converted = convertFile(
+                    tid, parallelCount, file, modrinthVersions0, digest, thirdPartyDisabled
+                );
+                orderedWriter.submit(i, converted);
+                convertedCount.incrementAndGet();
+            }
+        }, listener::workerFinished);
+        listener.phaseFinished("Converting files...");
+    }
+
+    private ConvertedFile convertFile(
+        int tid,
+        int parallelCount,
+        ModpackFile file,
+        Map<String, Version> modrinthVersions,
+        MultiMessageDigest digest,
+        List<ModpackFile> thirdPartyDisabled
+    ) throws Exception {
+        final byte[] knownSha1 = file.getHashes().get("sha1");
+        if (knownSha1 != null) {
+            final Version versionData = modrinthVersions.get(GeneralUtilKt.toHexString(knownSha1));
+            if (versionData != null) {
+                return new ConvertedFile(file, versionData.getPrimaryFile(), null);
+            }
+            println(file.getPath() + " not found on Modrinth. Including in overrides.", true);
+            final File cacheFile = SuperpackKt.getCacheFilePath(knownSha1);
+            if (cacheFile.isFile() && cacheFile.length() == file.getSize()) {
+                DownloadCache.touch(cacheFile);
+                return new ConvertedFile(file, null, cacheFile);
+            }
+            if (file.getDownloads().isEmpty()) {
+                thirdPartyDisabled.add(file);
+                println("WARNING: Could not include mod " + file.getPath() + " because its author disabled 3rd party downloads.", true);
+                return ConvertedFile.SKIPPED;
+            }
+            listener.taskStarted(tid, "Downloading " + file.getPath(), file.getSize());
+            //noinspection ResultOfMethodCallIgnored
+            cacheFile.getParentFile().mkdirs();
+            if (installer.download(
+                parallelCount, "", file.getDownloads(), tid, digest, file, cacheFile, null
+            ) < 0) {
+                println("Failed to download " + file.getPath(), true);
+                return ConvertedFile.SKIPPED;
+            }
+            return new ConvertedFile(file, null, cacheFile);
+        }
+
+        // Without a SHA-1, the file has to be downloaded before it can be looked up
+        final List<URL> downloadUrls = file.getDownloads();
+        if (downloadUrls.isEmpty()) {
+            thirdPartyDisabled.add(file);
+            println("WARNING: Could not include mod " + file.getPath() + " because its author disabled 3rd party downloads.", true);
+            return ConvertedFile.SKIPPED;
+        }
+        final byte[] sha1 = downloadUnhashed(tid, file, downloadUrls.get(0), digest);
+        if (sha1 == null) {
+            return ConvertedFile.SKIPPED;
+        }
+        Version versionData;
+        try {
+            versionData = lookup.lookupSha1(sha1);
+        } catch (IOException e) {
+            LOGGER.error("Failed to look up {} on Modrinth", file.getPath(), e);
+            versionData = null;
+        }
+        if (versionData != null) {
+            return new ConvertedFile(file, versionData.getPrimaryFile(), null);
+        }
+        println(file.getPath() + " not found on Modrinth. Including in overrides.", true);
+        return new ConvertedFile(file, null, SuperpackKt.getCacheFilePath(sha1));
+    }
+
+    /**
+     * Downloads a file whose hash isn't known into the download cache.
+     * @return The SHA-1 of the file, or {@code null} if it failed to download.
+     */
+    private byte[] downloadUnhashed(int tid, ModpackFile file, URL url, MultiMessageDigest digest) throws Exception {
+        //noinspection ResultOfMethodCallIgnored
+        SuperpackKt.DOWNLOAD_CACHE_DIR.mkdirs();
+        // A .part file, so that the cache ignores it until it's moved into place
+        final Path tempFile = Files.createTempFile(SuperpackKt.DOWNLOAD_CACHE_DIR.toPath(), "convert-", ".part");
+        try {
+            final String status = "Downloading " + file.getPath();
+            listener.taskStarted(tid, status, file.getSize());
+            digest.reset();
+            final long downloadSize;
+            try (InputStream is = new TrackingInputStream(
+                new DigestInputStream(SimpleHttp.downloadStream(url), digest),
+                read -> listener.taskProgress(tid, status, read, file.getSize())
+            )) {
+                downloadSize = ChannelIO.copy(is, tempFile);
+            } catch (IOException e) {
+                println("Failed to download " + url + ": " + e, true);
+                LOGGER.error("Download failed", e);
+                return null;
+            }
+            if (downloadSize != file.getSize()) {
+                println("Failed to download " + url + " because the file size didn't match.", true);
+                println("  Expected: " + GeneralUtilKt.getHumanFileSizeExtended(file.getSize()), true);
+                println("  Actual:   " + GeneralUtilKt.getHumanFileSizeExtended(downloadSize), true);
+                return null;
+            }
+            final byte[] sha1 = digest.getDigests()[0].digest();
+            final File cacheFile = SuperpackKt.getCacheFilePath(sha1);
+            //noinspection ResultOfMethodCallIgnored
+            cacheFile.getParentFile().mkdirs();
+            final long oldSize = CacheIndex.sizeOf(cacheFile);
+            Files.move(tempFile, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            CacheIndex.fileWritten(cacheFile, oldSize);
+            return sha1;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Writes the overrides that aren't on Modrinth into the pack, and adds the ones that are to the index. Overrides
+     * that might be on Modrinth are hashed and looked up before anything is written, so that they're only written if
+     * they need to be.
+     * @return The paths of the overrides that were added to the index, relative to the overrides folder
+     */
+    private Set<String> convertOverrides(MrpackWriter out) throws Exception {
+        println("\nConverting overrides", true);
+        final List<FileOverride> overrides = pack.getOverrides(null);
+        // Overrides that might be on Modrinth, and their SHA-1s, looked up together once they're all hashed
+        final List<FileOverride> lookupOverrides = new ArrayList<>();
+        final List<byte[]> lookupOverrideSha1s = new ArrayList<>();
+        for (final FileOverride override : overrides) {
+            if (override.isDirectory()) continue;
+            if (MR_LOOKUP_EXTENSIONS.contains(StringsKt.substringAfterLast(override.getPath(), '.', ""))) {
+                lookupOverrides.add(override);
+            }
+        }
+
+        final Set<String> indexed = new HashSet<>();
+        final Set<FileOverride> onModrinth = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (!lookupOverrides.isEmpty()) {
+            listener.phaseStarted(lookupOverrides.size(), 1);
+            int hashedI = 0;
+            for (final FileOverride override : lookupOverrides) {
+                listener.overallProgress("Hashing overrides...", hashedI++, lookupOverrides.size());
+                final MessageDigest sha1md = GeneralUtilKt.getSha1();
+                final String status = "Hashing " + override.getPath();
+                listener.taskStarted(0, status, override.getSize());
+                try (InputStream is = new TrackingInputStream(
+                    new DigestInputStream(override.openInputStream(pack.getZipFile()), sha1md),
+                    read -> listener.taskProgress(0, status, read, override.getSize())
+                )) {
+                    is.transferTo(OutputStream.nullOutputStream());
+                }
+                lookupOverrideSha1s.add(sha1md.digest());
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            listener.workerFinished(0);
+            listener.phaseFinished("Hashing overrides...");
+
+            println("\nLooking up overrides on Modrinth", true);
+            Map<String, Version> overrideVersions;
+            try {
+                overrideVersions = lookup.lookupSha1(lookupOverrideSha1s);
+            } catch (IOException e) {
+                LOGGER.error("Failed to look up overrides on Modrinth", e);
+                println("Failed to look up overrides on Modrinth. Leaving them in overrides.", true);
+                overrideVersions = Map.of();
+            }
+            for (int i = 0; i < lookupOverrides.size(); i++) {
+                final FileOverride override = lookupOverrides.get(i);
+                final Version versionData = overrideVersions.get(GeneralUtilKt.toHexString(lookupOverrideSha1s.get(i)));
+                if (versionData == null) continue;
+                println(override.getPath() + " found on Modrinth, including in pack index.", true);
+                final String path = override.getPath().substring("overrides/".length());
+                writeIndexEntry(
+                    out.index(),
+                    path,
+                    versionData.getPrimaryFile(),
+                    "required", "required",
+                    override.getSize()
+                );
+                indexed.add(path);
+                onModrinth.add(override);
+            }
+        }
+
+        println("\nCopying overrides", true);
+        listener.phaseStarted(overrides.size(), 1);
+        int overrideI = 0;
+        for (final FileOverride override : overrides) {
+            listener.overallProgress("Copying overrides...", overrideI++, overrides.size());
+            if (override.isDirectory()) {
+                out.putDirectory(override.getPath());
+                continue;
+            }
+            if (onModrinth.contains(override)) continue;
+            final String status = "Copying " + override.getPath();
+            listener.taskStarted(0, status, override.getSize());
+            try (InputStream is = new TrackingInputStream(
+                override.openInputStream(pack.getZipFile()),
+                read -> listener.taskProgress(0, status, read, override.getSize())
+            )) {
+                out.putStream(override.getPath(), is, override.getSize(), override.getCrc());
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        listener.workerFinished(0);
+        listener.phaseFinished("Copying overrides...");
+        return indexed;
+    }
+
+    private static void writeIndexEntry(
+        JsonWriter writer, String path, Version.File versionFile, String client, String server, long fileSize
+    ) throws IOException {
+        writer.beginObject();
+        writer.name("path").value(path);
+        writer.name("hashes").beginObject();
+        {
+            writer.name("sha1").value(GeneralUtilKt.toHexString(versionFile.getHashes().getSha1()));
+            writer.name("sha512").value(GeneralUtilKt.toHexString(versionFile.getHashes().getSha512()));
+        }
+        writer.endObject();
+        writer.name("env").beginObject();
+        {
+            writer.name("client").value(client);
+            writer.name("server").value(server);
+        }
+        writer.endObject();
+        writer.name("downloads").beginArray();
+        {
+            writer.value(versionFile.getUrl().toExternalForm());
+        }
+        writer.endArray();
+        writer.name("fileSize").value(fileSize);
+        writer.endObject();
+    }
+
+    /**
+     * The outcome of converting one referenced file. At most one of {@code versionFile} and {@code overrideSource}
+     * is set, and if neither is, the file is left out of the pack.
+     * @param versionFile The file on Modrinth, if it was found there
+     * @param overrideSource Where to copy the file from, if it's being put in the overrides
+     */
+    private record ConvertedFile(ModpackFile file, Version.File versionFile, File overrideSource) {
+        static final ConvertedFile SKIPPED = new ConvertedFile(null, null, null);
+    }
+
+    @FunctionalInterface
+    private interface ConvertedFileWriter {
+        void write(ConvertedFile converted) throws IOException;
+    }
+
+    /**
+     * Writes results in order as they're submitted out of order. Whichever thread submits the next result in line
+     * writes it, along with any results after it that are already waiting, while other threads carry on converting.
+     */
+    private static final class OrderedWriter {
+        private final ConvertedFile[] results;
+        private final ConvertedFileWriter writer;
+        private final Lock writeLock = new ReentrantLock();
+        private int nextToWrite;
+
+        OrderedWriter(int count, ConvertedFileWriter writer) {
+            results = new ConvertedFile[count];
+            this.writer = writer;
+        }
+
+        void submit(int index, ConvertedFile result) throws IOException {
+            synchronized (results) {
+                results[index] = result;
+            }
+            while (writeLock.tryLock()) {
+                try {
+                    ConvertedFile next;
+                    while ((next = take()) != null) {
+                        writer.write(next);
+                    }
+                } finally {
+                    writeLock.unlock();
+                }
+                // Another result could've been submitted after we stopped writing, but before we unlocked
+                if (!hasNext()) break;
+            }
+        }
+
+        private ConvertedFile take() {
+            synchronized (results) {
+                if (nextToWrite >= results.length) return null;
+                final ConvertedFile next = results[nextToWrite];
+                if (next == null) return null;
+                results[nextToWrite++] = null;
+                return next;
+            }
+        }
+
+        private boolean hasNext() {
+            synchronized (results) {
+                return nextToWrite < results.length && results[nextToWrite] != null;
+            }
+        }
+    }
+}
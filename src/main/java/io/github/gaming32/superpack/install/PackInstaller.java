@@ -0,0 +1,1078 @@
+package io.github.gaming32.superpack.install;
+
+import io.github.gaming32.superpack.SuperpackKt;
+import io.github.gaming32.superpack.cache.CacheIndex;
+import io.github.gaming32.superpack.cache.DownloadCache;
+import io.github.gaming32.superpack.modpack.*;
+import io.github.gaming32.superpack.util.*;
+import org.slf4j.Logger;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Installs a {@link Modpack} into a directory. This has no dependency on Swing, and reports everything it does
+ * through an {@link InstallListener}.
+ */
+public final class PackInstaller {
+    private static final Logger LOGGER = GeneralUtilKt.getLogger();
+    /**
+     * The digest state of {@code .part} files whose downloads failed, so that resuming them doesn't need a rehash
+     */
+    private static final Map<File, PartialDownload> PARTIAL_DOWNLOADS = new ConcurrentHashMap<>();
+
+    private final Modpack pack;
+    private final InstallOptions options;
+    private final InstallListener listener;
+    private VerifiedFileIndex verifiedFiles;
+    /**
+     * The bandwidth limit for this install
+     */
+    private final TokenBucket bandwidth = Bandwidth.newInstallBucket();
+    /**
+     * Limits how many files are downloaded from each host at once
+     */
+    private final Map<String, AdaptiveLimiter> downloadLimiters = new ConcurrentHashMap<>();
+
+    public PackInstaller(Modpack pack, InstallOptions options, InstallListener listener) {
+        this.pack = pack;
+        this.options = options;
+        this.listener = listener;
+    }
+
+    public Modpack getPack() {
+        return pack;
+    }
+
+    public InstallOptions getOptions() {
+        return options;
+    }
+
+    public void println(String s, boolean important) throws InterruptedException {
+        LOGGER.info(s);
+        listener.message(s, important);
+        if (listener.isCancelled() || Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Works out what installing the pack would do, without changing anything in the output directory. Files that
+     * already exist are hashed in parallel, unless the {@link VerifiedFileIndex} says they haven't changed. Overrides
+     * are compared by the CRC-32 and size in the pack's central directory, so only the ones that changed are
+     * extracted again.
+     */
+    public InstallPlan plan() throws Exception {
+        final File outputDirFile = options.getOutputDir();
+        final Side env = options.getSide();
+        final VerifiedFileIndex verifiedFiles = getVerifiedFiles();
+
+        final List<ModpackFile> files = pack.getAllFiles(env);
+        // Side-specific overrides replace global ones with the same path, so only the one that wins is planned
+        final Map<String, FileOverride> mergedOverrides = new LinkedHashMap<>();
+        final Set<String> sideOverridePaths = new HashSet<>();
+        if (!options.isSkipOverrides()) {
+            for (final FileOverride override : pack.getOverrides(null)) {
+                mergedOverrides.put(getInstallPath(override), override);
+            }
+            if (pack.getType().getSupportsSides()) {
+                for (final FileOverride override : pack.getOverrides(env)) {
+                    final String installPath = getInstallPath(override);
+                    mergedOverrides.put(installPath, override);
+                    sideOverridePaths.add(installPath);
+                }
+            }
+        }
+        final List<FileOverride> overrides = new ArrayList<>(mergedOverrides.values());
+        final List<Side> overrideSides = new ArrayList<>(overrides.size());
+        for (final String installPath : mergedOverrides.keySet()) {
+            overrideSides.add(sideOverridePaths.contains(installPath) ? env : null);
+        }
+
+        // Overrides that share a path with a pack file are always extracted. Otherwise an override that's already in
+        // place would be skipped, then replaced by the pack file, and extracted again on the next install.
+        final Set<Path> packFilePaths = new HashSet<>();
+        for (final ModpackFile file : files) {
+            if (!isSkippedOptional(file, env)) {
+                packFilePaths.add(resolveSafely(outputDirFile, file.getPath()).toPath().normalize());
+            }
+        }
+
+        final int total = files.size() + overrides.size();
+        final PlannedFile[] plannedFiles = new PlannedFile[files.size()];
+        final PlannedOverride[] plannedOverrides = new PlannedOverride[overrides.size()];
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger checkedCount = new AtomicInteger();
+        final int parallelCount = Math.min(total, options.getParallelDownloadCount());
+        listener.phaseStarted(total, parallelCount);
+        WorkerPool.runParallel(parallelCount, tid -> {
+            int i;
+            while ((i = next.getAndIncrement()) < total) {
+                listener.overallProgress("Checking existing files...", checkedCount.get(), total);
+                if (i < plannedFiles.length) {
+                    final ModpackFile file = files.get(i);
+                    listener.taskStarted(tid, "Checking " + file.getPath(), file.getSize());
+                    plannedFiles[i] = planFile(file, outputDirFile, env, verifiedFiles);
+                } else {
+                    final int j = i - plannedFiles.length;
+                    final FileOverride override = overrides.get(j);
+                    listener.taskStarted(tid, "Checking " + override.getPath(), override.getSize());
+                    plannedOverrides[j] = planOverride(
+                        override, overrideSides.get(j), outputDirFile, verifiedFiles, packFilePaths
+                    );
+                }
+                checkedCount.incrementAndGet();
+                if (listener.isCancelled()) {
+                    throw new InterruptedException();
+                }
+            }
+        }, listener::workerFinished);
+        listener.phaseFinished("Checking existing files...");
+
+        return new InstallPlan(List.of(plannedFiles), List.of(plannedOverrides));
+    }
+
+    private PlannedFile planFile(
+        ModpackFile file, File outputDirFile, Side env, VerifiedFileIndex verifiedFiles
+    ) throws IOException {
+        final File destPath = resolveSafely(outputDirFile, file.getPath());
+        if (isSkippedOptional(file, env)) {
+            return new PlannedFile(file, destPath, PlannedAction.SKIP_OPTIONAL, null);
+        }
+        final byte[] expectedSha1 = file.getHashes().get("sha1");
+        if (expectedSha1 == null) {
+            return new PlannedFile(file, destPath, PlannedAction.DOWNLOAD, null);
+        }
+        final BasicFileAttributes attributes = readAttributesIfExists(destPath.toPath());
+        if (attributes != null && attributes.isRegularFile() && attributes.size() == file.getSize()) {
+            byte[] existingSha1 = verifiedFiles.getSha1(file.getPath(), attributes);
+            if (existingSha1 == null) {
+                existingSha1 = FileHashing.sha1(destPath.toPath());
+                verifiedFiles.put(file.getPath(), attributes, existingSha1);
+            }
+            if (Arrays.equals(existingSha1, expectedSha1)) {
+                return new PlannedFile(file, destPath, PlannedAction.PRESENT, null);
+            }
+        }
+        final File cacheFile = SuperpackKt.getCacheFilePath(expectedSha1);
+        if (cacheFile.isFile() && cacheFile.length() == file.getSize()) {
+            return new PlannedFile(file, destPath, PlannedAction.FROM_CACHE, cacheFile);
+        }
+        return new PlannedFile(file, destPath, PlannedAction.DOWNLOAD, cacheFile);
+    }
+
+    private boolean isSkippedOptional(ModpackFile file, Side env) {
+        return file.getCompatibility(env) == Compatibility.OPTIONAL &&
+            options.getSkippedOptionalFiles().contains(file.getPath());
+    }
+
+    private static PlannedOverride planOverride(
+        FileOverride override,
+        Side side,
+        File outputDirFile,
+        VerifiedFileIndex verifiedFiles,
+        Set<Path> packFilePaths
+    ) throws IOException {
+        final String installPath = getInstallPath(override);
+        final File destPath = resolveSafely(outputDirFile, installPath);
+        if (
+            !override.isDirectory() && override.getCrc() != -1 &&
+                !packFilePaths.contains(destPath.toPath().normalize())
+        ) {
+            final BasicFileAttributes attributes = readAttributesIfExists(destPath.toPath());
+            if (attributes != null && attributes.isRegularFile() && attributes.size() == override.getSize()) {
+                long existingCrc = verifiedFiles.getCrc32(installPath, attributes);
+                if (existingCrc == -1) {
+                    existingCrc = FileHashing.crc32(destPath.toPath());
+                    verifiedFiles.putCrc32(installPath, attributes, existingCrc);
+                }
+                if (existingCrc == override.getCrc()) {
+                    return new PlannedOverride(override, side, destPath, PlannedAction.PRESENT);
+                }
+            }
+        }
+        return new PlannedOverride(override, side, destPath, PlannedAction.EXTRACT);
+    }
+
+    /**
+     * @return Where {@code override} goes, relative to the output directory
+     */
+    private static String getInstallPath(FileOverride override) {
+        final String path = override.getPath();
+        return path.substring(path.indexOf('/') + 1);
+    }
+
+    private static File resolveSafely(File outputDirFile, String path) {
+        final File destPath = new File(outputDirFile, path);
+        if (!destPath.toPath().normalize().startsWith(outputDirFile.toPath().normalize())) {
+            throw new DisplayErrorMessageMarker(
+                "Unsafe file detected: " + path + "\n" +
+                    "The developer of this modpack may be attempting to install malware on your computer." +
+                    "For safety, further installation of this modpack has been aborted."
+            );
+        }
+        return destPath;
+    }
+
+    private VerifiedFileIndex getVerifiedFiles() {
+        if (verifiedFiles == null) {
+            verifiedFiles = VerifiedFileIndex.load(options.getOutputDir());
+        }
+        return verifiedFiles;
+    }
+
+    /**
+     * Installs the pack. Files that failed to download are reported in the result, and it is up to the caller to
+     * decide what to do with them.
+     */
+    public InstallResult install() throws Exception {
+        return install(null);
+    }
+
+    /**
+     * Installs the pack according to {@code plan}, which should have been made by {@link #plan()} on this installer.
+     * If {@code plan} is {@code null}, a new one is made first.
+     */
+    public InstallResult install(InstallPlan plan) throws Exception {
+        final long startTime = System.currentTimeMillis();
+
+        final File outputDirFile = options.getOutputDir();
+        println("Creating destination directory...", true);
+        //noinspection ResultOfMethodCallIgnored
+        outputDirFile.mkdirs();
+
+        if (plan == null) {
+            println("\nChecking existing files...", true);
+            plan = plan();
+        }
+        println(
+            "Need to download " + GeneralUtilKt.getHumanFileSizeExtended(plan.getBytesToDownload()) +
+                " and copy " + GeneralUtilKt.getHumanFileSizeExtended(plan.getBytesToCopy()),
+            true
+        );
+
+        // Overrides are extracted while files download, except for ones that replace a file being downloaded, which
+        // have to wait so that they still win
+        final Set<File> downloadPaths = new HashSet<>();
+        for (final PlannedFile planned : plan.getFiles()) {
+            if (planned.getAction() == PlannedAction.FROM_CACHE || planned.getAction() == PlannedAction.DOWNLOAD) {
+                downloadPaths.add(planned.getDestPath());
+            }
+        }
+        final List<PlannedOverride> concurrentOverrides = new ArrayList<>();
+        final List<PlannedOverride> deferredOverrides = new ArrayList<>();
+        if (!options.isSkipOverrides()) {
+            for (final PlannedOverride planned : plan.getOverrides()) {
+                (downloadPaths.contains(planned.getDestPath()) ? deferredOverrides : concurrentOverrides).add(planned);
+            }
+        }
+
+        println(concurrentOverrides.isEmpty() ? "\nDownloading files..." : "\nDownloading files and extracting overrides...", true);
+        final String secondaryHash = pack.getType().getSecondaryHash().getAlgorithm();
+        final AtomicLong totalDownloadSize = new AtomicLong();
+        final AtomicInteger installedCount = new AtomicInteger();
+        final AtomicInteger downloadedCount = new AtomicInteger();
+        final List<PlannedFile> filesToInstall = new ArrayList<>();
+        for (final PlannedFile planned : plan.getFiles()) {
+            switch (planned.getAction()) {
+                case SKIP_OPTIONAL -> println("Skipped optional file " + planned.getFile().getPath(), true);
+                case PRESENT -> println("Skipping already complete file " + planned.getFile().getPath(), false);
+                default -> filesToInstall.add(planned);
+            }
+        }
+        final int parallelDownloadCount = Math.min(filesToInstall.size(), options.getParallelDownloadCount());
+        final String overallStatus = concurrentOverrides.isEmpty() ? "Downloading files..." : "Installing files...";
+        final OverrideExtraction extraction = new OverrideExtraction(concurrentOverrides);
+        final Progress progress = new Progress(
+            overallStatus, new AtomicInteger(), filesToInstall.size() + extraction.files.size()
+        );
+        extraction.progress = progress;
+        listener.phaseStarted(progress.total(), parallelDownloadCount + extraction.workerCount);
+
+        final List<ModpackFile> failedToDownload = new CopyOnWriteArrayList<>();
+        final BlockingQueue<PlannedFile> downloadQueue = new LinkedBlockingQueue<>(filesToInstall);
+        final VerifiedFileIndex verifiedFiles = getVerifiedFiles();
+
+        final WorkerPool.Worker downloadBody = tid -> {
+            final MultiMessageDigest digest = new MultiMessageDigest(
+                GeneralUtilKt.getSha1(),
+                MessageDigest.getInstance(secondaryHash)
+            );
+            while (true) {
+                final PlannedFile planned = downloadQueue.poll();
+                if (planned == null) break; // We're done here
+                final ModpackFile file = planned.getFile();
+                final File destPath = planned.getDestPath();
+                progress.report(listener);
+                listener.taskStarted(tid, "Downloading " + file.getPath(), file.getSize());
+                //noinspection ResultOfMethodCallIgnored
+                destPath.getParentFile().mkdirs();
+                println("Installing " + file.getPath() + " (" + installedCount.incrementAndGet() + '/' + filesToInstall.size() + ')', false);
+                progress.completed().incrementAndGet();
+                final File cacheFile = planned.getCacheFile();
+                // The cache could've been cleared since the plan was made
+                if (
+                    planned.getAction() == PlannedAction.FROM_CACHE &&
+                        cacheFile.isFile() && cacheFile.length() == file.getSize()
+                ) {
+                    if (parallelDownloadCount == 1) {
+                        println("   File found in cache at " + cacheFile, false);
+                    } else {
+                        println("File " + file.getPath() + " found in cache at " + cacheFile, false);
+                    }
+                    try {
+                        options.getCacheLinkMode().place(cacheFile.toPath(), destPath.toPath());
+                        DownloadCache.touch(cacheFile);
+                        continue;
+                    } catch (IOException e) {
+                        // Such as when the file was evicted from the cache since it was checked, so download it instead
+                        rethrowIfInterrupted(e);
+                        LOGGER.warn("Failed to copy {} from the download cache", file.getPath(), e);
+                    }
+                }
+                long downloadSize;
+                try {
+                    downloadSize = download(
+                        parallelDownloadCount, "   ", file.getDownloads(), tid, digest, file, destPath, cacheFile
+                    );
+                } catch (IOException e) {
+                    // Failing to write one file shouldn't stop the rest of the install
+                    rethrowIfInterrupted(e);
+                    LOGGER.warn("Failed to install {}", file.getPath(), e);
+                    downloadSize = -1L;
+                }
+                if (downloadSize >= 0) {
+                    if (file.getHashes().containsKey("sha1")) {
+                        verifiedFiles.put(file.getPath(), destPath.toPath(), file.getHashes().get("sha1"));
+                    }
+                    totalDownloadSize.addAndGet(downloadSize);
+                    downloadedCount.incrementAndGet();
+                } else {
+                    failedToDownload.add(file);
+                    if (parallelDownloadCount == 1) {
+                        println("   Failed to download file.", false);
+                    } else {
+                        println("Failed to download " + file.getPath(), false);
+                    }
+                    try {
+                        Files.delete(destPath.toPath());
+                    } catch (IOException e) {
+                        // Ignore
+                    }
+                }
+            }
+        };
+
+        try {
+            // Downloads and extraction each have their own workers, so that neither can starve the other
+            WorkerPool.runParallel(parallelDownloadCount + extraction.workerCount, tid -> {
+                if (tid < parallelDownloadCount) {
+                    downloadBody.run(tid);
+                } else {
+                    extraction.run(tid - parallelDownloadCount, tid);
+                }
+            }, listener::workerFinished);
+        } finally {
+            try {
+                verifiedFiles.save();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to save verified file index", e);
+            }
+        }
+
+        println(
+            "Downloaded a total of " +
+                GeneralUtilKt.getHumanFileSizeExtended(totalDownloadSize.get()) +
+                " across " + downloadedCount.get() + " files",
+            true
+        );
+        if (!concurrentOverrides.isEmpty()) {
+            extraction.printSummary();
+        }
+        listener.phaseFinished(overallStatus);
+
+        DownloadCache.trimQuietly(
+            plan.getFiles().stream().map(PlannedFile::getCacheFile).filter(Objects::nonNull).toList()
+        );
+        CacheIndex.save();
+
+        if (!deferredOverrides.isEmpty()) {
+            extractOverrides(deferredOverrides);
+        }
+
+        if (!failedToDownload.isEmpty()) {
+            println("\n" + failedToDownload.size() + " file(s) failed to download:", true);
+            for (final ModpackFile file : failedToDownload) {
+                final boolean wasCf = pack.getType() == ModpackType.CURSEFORGE && file.getDownloads().isEmpty();
+                println("  + " + file.getPath() + (wasCf ? " (blacklisted by author)" : ""), true);
+            }
+        }
+
+        return new InstallResult(startTime, totalDownloadSize.get(), downloadedCount.get(), List.copyOf(failedToDownload));
+    }
+
+    /**
+     * Downloads a single file and verifies it against the hashes the pack specifies.
+     * <p>
+     * The file is first downloaded to a {@code .part} file next to {@code destPath}, which is only moved into place
+     * once it's been verified. If a download fails partway through, the {@code .part} file is kept, and the next
+     * attempt (from any mirror) only requests the part of the file that's missing.
+     * @param parallelDownloadCount When this is {@code 1}, more detailed output is printed.
+     * @param worker The worker to report progress as.
+     * @param digest A digest of the SHA-1 and the pack type's secondary hash, in that order.
+     * @param cachePath If not {@code null}, the file is also written here. When the download starts from scratch,
+     *                  this is done as the file is downloaded, instead of by copying it afterwards.
+     * @return The size of the downloaded file, or {@code -1} if the download failed.
+     */
+    public long download(
+        int parallelDownloadCount,
+        String indent,
+        URL downloadUrl,
+        int worker,
+        MultiMessageDigest digest,
+        ModpackFile file,
+        File destPath,
+        File cachePath
+    ) throws Exception {
+        return download(parallelDownloadCount, indent, List.of(downloadUrl), worker, digest, file, destPath, cachePath);
+    }
+
+    /**
+     * Downloads a single file from the first of {@code mirrors}. If it doesn't respond within the
+     * {@linkplain InstallOptions#getHedgeDelay() hedge delay}, or fails, the next of {@code mirrors} is tried as
+     * well, and whichever responds first is used. If the download still fails, such as because the file doesn't
+     * match its hashes, it's retried from the mirrors that haven't been tried yet. Each mirror is tried at most once,
+     * except that a resumed download that fails verification is restarted from the beginning once.
+     * @see #download(int, String, URL, int, MultiMessageDigest, ModpackFile, File, File)
+     */
+    public long download(
+        int parallelDownloadCount,
+        String indent,
+        List<URL> mirrors,
+        int worker,
+        MultiMessageDigest digest,
+        ModpackFile file,
+        File destPath,
+        File cachePath
+    ) throws Exception {
+        if (cachePath == null) {
+            return downloadFromMirrors(parallelDownloadCount, indent, mirrors, worker, digest, file, destPath, null, null);
+        }
+        //noinspection ResultOfMethodCallIgnored
+        cachePath.getParentFile().mkdirs();
+        // Every download gets its own tee, since other workers or other installs may be downloading the same file
+        // into the cache at the same time
+        final File cachePartFile = Files.createTempFile(
+            cachePath.getParentFile().toPath(), cachePath.getName() + '-', ".part"
+        ).toFile();
+        try {
+            return downloadFromMirrors(
+                parallelDownloadCount, indent, mirrors, worker, digest, file, destPath, cachePath, cachePartFile
+            );
+        } finally {
+            // This has already been moved into place if the download succeeded
+            Files.deleteIfExists(cachePartFile.toPath());
+        }
+    }
+
+    private long downloadFromMirrors(
+        int parallelDownloadCount,
+        String indent,
+        List<URL> mirrors,
+        int worker,
+        MultiMessageDigest digest,
+        ModpackFile file,
+        File destPath,
+        File cachePath,
+        File cachePartFile
+    ) throws Exception {
+        final File partFile = getPartFile(destPath);
+        final List<URL> untried = new ArrayList<>(mirrors);
+        boolean restarted = false;
+        while (!untried.isEmpty()) {
+            final boolean resumed = partFile.length() > 0;
+            final Set<URL> tried = new HashSet<>();
+            tried.add(untried.get(0));
+            final long downloadSize = download0(
+                parallelDownloadCount, indent, untried, tried, worker, digest,
+                file, destPath, cachePath, cachePartFile
+            );
+            if (downloadSize >= 0) {
+                return downloadSize;
+            }
+            // The .part file is deleted when it fails verification. If it was resumed, it may have been left over
+            // from an older version of the file, so the same mirrors get one more try from the start.
+            if (resumed && !restarted && !partFile.exists()) {
+                restarted = true;
+                LOGGER.info("Resumed download of {} failed verification. Restarting it.", file.getPath());
+                continue;
+            }
+            untried.removeAll(tried);
+        }
+        return -1L;
+    }
+
+    /**
+     * Makes one attempt at downloading a file, starting with the first of {@code mirrors}.
+     * @param tried Every mirror that's requested is added to this.
+     */
+    private long download0(
+        int parallelDownloadCount,
+        String indent,
+        List<URL> mirrors,
+        Set<URL> tried,
+        int worker,
+        MultiMessageDigest digest,
+        ModpackFile file,
+        File destPath,
+        File cachePath,
+        File cachePartFile
+    ) throws Exception {
+        final URL downloadUrl = mirrors.get(0);
+        final String status = "Downloading " + file.getPath();
+        final File partFile = getPartFile(destPath);
+        long downloadSize = partFile.isFile() ? partFile.length() : 0L;
+        if (downloadSize > file.getSize()) {
+            // Can't be the same file
+            Files.delete(partFile.toPath());
+            downloadSize = 0L;
+        }
+        MultiMessageDigest activeDigest = resumeDigest(partFile, downloadSize, digest);
+        // Resumed downloads are only partly in memory, so they're copied into the cache afterwards instead
+        final File teePartFile = downloadSize == 0 ? cachePartFile : null;
+        listener.taskProgress(worker, status, downloadSize, file.getSize());
+        if (downloadSize < file.getSize()) { // Complete .part files just need to be verified
+            // Always the limiter for the host the download is coming from, or null while switching between them
+            AdaptiveLimiter limiter = getDownloadLimiter(downloadUrl);
+            final long resumedFrom = downloadSize;
+            limiter.acquire();
+            try {
+                // Each extra segment is another connection to the host, so it's only used if there's a permit for it
+                final boolean canSegment =
+                    downloadSize == 0 && SegmentedDownload.shouldSegment(downloadUrl, file.getSize());
+                final int extraPermits = canSegment ? limiter.tryAcquire(SegmentedDownload.MAX_SEGMENTS - 1) : 0;
+                if (extraPermits > 0) {
+                    try {
+                        if (parallelDownloadCount == 1) {
+                            println(indent + "Downloading " + downloadUrl + " in segments", false);
+                        }
+                        boolean segmented;
+                        try {
+                            segmented = SegmentedDownload.download(
+                                downloadUrl, extraPermits + 1, partFile, teePartFile, file.getSize(), bandwidth,
+                                progress -> listener.taskProgress(worker, status, progress, file.getSize())
+                            );
+                        } catch (IOException e) {
+                            limiter.onFailure(e);
+                            printDownloadFailure(parallelDownloadCount, indent, downloadUrl, e);
+                            if (Thread.currentThread().isInterrupted()) {
+                                return -1L;
+                            }
+                            // A single bad range doesn't mean the mirror can't serve the whole file
+                            if (parallelDownloadCount == 1) {
+                                println(indent + "Retrying " + downloadUrl + " without segments", false);
+                            }
+                            listener.taskProgress(worker, status, 0L, file.getSize());
+                            segmented = false;
+                        }
+                        if (segmented) {
+                            // The segments arrive out of order, so they can only be hashed once they're all here
+                            activeDigest = resumeDigest(partFile, file.getSize(), digest);
+                            downloadSize = file.getSize();
+                        }
+                    } finally {
+                        limiter.release(extraPermits);
+                    }
+                }
+                if (downloadSize < file.getSize()) {
+                    if (parallelDownloadCount == 1) {
+                        if (downloadSize > 0) {
+                            println(indent + "Resuming download of " + downloadUrl + " from " + GeneralUtilKt.getHumanFileSize(downloadSize), false);
+                        } else {
+                            println(indent + "Downloading " + downloadUrl, false);
+                        }
+                    }
+                    URL sourceUrl = downloadUrl;
+                    boolean digestSettled = true;
+                    try (DownloadResponse response = SimpleHttp.downloadHedged(
+                        mirrors, downloadSize, Duration.ofMillis(options.getHedgeDelay()), tried
+                    )) {
+                        sourceUrl = response.getUrl();
+                        if (!sourceUrl.equals(downloadUrl)) {
+                            if (parallelDownloadCount == 1) {
+                                println(indent + "   Using faster mirror " + sourceUrl, false);
+                            }
+                            if (!sourceUrl.getHost().equals(downloadUrl.getHost())) {
+                                // The permit is released first, so that this never waits while holding another
+                                // host's permit
+                                final AdaptiveLimiter sourceLimiter = getDownloadLimiter(sourceUrl);
+                                limiter.release();
+                                limiter = null;
+                                sourceLimiter.acquire();
+                                limiter = sourceLimiter;
+                            }
+                        }
+                        if (response.getOffset() != downloadSize) {
+                            // The server ignored our Range, so we need to start over
+                            activeDigest.reset();
+                            downloadSize = response.getOffset();
+                        }
+                        final boolean tee = teePartFile != null && downloadSize == 0;
+                        try (
+                            FileChannel os = FileChannel.open(
+                                partFile.toPath(),
+                                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                downloadSize > 0 ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING
+                            );
+                            FileChannel teeOs = tee ? FileChannel.open(
+                                teePartFile.toPath(),
+                                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING
+                            ) : null
+                        ) {
+                            // The digest is only updated once bytes are written, so it always matches the .part file
+                            final DownloadPipeline pipeline = new DownloadPipeline(os, teeOs, activeDigest);
+                            final long resumeSize = downloadSize;
+                            try {
+                                pipeline.transfer(
+                                    new ThrottledInputStream(response.getBody(), bandwidth),
+                                    read -> listener.taskProgress(worker, status, resumeSize + read, file.getSize())
+                                );
+                            } finally {
+                                downloadSize += pipeline.getTransferred();
+                                digestSettled = pipeline.isSettled();
+                            }
+                        }
+                    } catch (IOException e) {
+                        limiter.onFailure(e);
+                        // Otherwise the .part file is rehashed from disk when it's resumed
+                        if (digestSettled) {
+                            savePartialDownload(partFile, downloadSize, activeDigest);
+                        }
+                        printDownloadFailure(parallelDownloadCount, indent, sourceUrl, e);
+                        return -1L;
+                    }
+                }
+                limiter.onSuccess(downloadSize - resumedFrom);
+            } finally {
+                if (limiter != null) {
+                    limiter.release();
+                }
+            }
+        }
+        digest = activeDigest;
+        if (parallelDownloadCount == 1) {
+            println(indent + "   Downloaded " + GeneralUtilKt.getHumanFileSizeExtended(downloadSize), false);
+        }
+        if (downloadSize != file.getSize()) {
+            if (parallelDownloadCount == 1) {
+                println(
+                    indent + "      ERROR: File size doesn't match! Expected " +
+                        GeneralUtilKt.getHumanFileSizeExtended(file.getSize()),
+                    false
+                );
+            } else {
+                println(
+                    "ERROR: File size for " + file.getPath() + " doesn't match! Expected " +
+                        GeneralUtilKt.getHumanFileSizeExtended(file.getSize()),
+                    false
+                );
+            }
+            Files.deleteIfExists(partFile.toPath());
+            return -1L;
+        }
+
+        byte[] hash1, hash2;
+
+        if (file.getHashes().containsKey("sha1")) {
+            hash1 = digest.getDigests()[0].digest();
+            hash2 = file.getHashes().get("sha1");
+            if (parallelDownloadCount == 1) {
+                println(indent + "   SHA-1: " + GeneralUtilKt.toHexString(hash1), false);
+            }
+            if (!Arrays.equals(hash1, hash2)) {
+                if (parallelDownloadCount == 1) {
+                    println(indent + "      ERROR: SHA-1 doesn't match! Expected " + GeneralUtilKt.toHexString(hash2), false);
+                } else {
+                    println("ERROR: SHA-1 for " + file.getPath() + " doesn't match! Expected " + GeneralUtilKt.toHexString(hash2), false);
+                }
+                Files.deleteIfExists(partFile.toPath());
+                return -1L;
+            }
+        }
+
+        final String secondaryHashApi = pack.getType().getSecondaryHash().getApiId();
+        if (file.getHashes().containsKey(secondaryHashApi)) {
+            final String secondaryHashAlgo = pack.getType().getSecondaryHash().getAlgorithm();
+            hash1 = digest.getDigests()[1].digest();
+            hash2 = file.getHashes().get(secondaryHashApi);
+            if (parallelDownloadCount == 1) {
+                println(indent + "   " + secondaryHashAlgo + ": " + GeneralUtilKt.toHexString(hash1), false);
+            }
+            if (!Arrays.equals(hash1, hash2)) {
+                if (parallelDownloadCount == 1) {
+                    println(indent + "      ERROR: " + secondaryHashAlgo + " doesn't match! Expected " + GeneralUtilKt.toHexString(hash2), false);
+                } else {
+                    println(
+                        "ERROR: " + secondaryHashAlgo + " for " + file.getPath() + " doesn't match! Expected " +
+                            GeneralUtilKt.toHexString(hash2),
+                        false
+                    );
+                }
+                Files.deleteIfExists(partFile.toPath());
+                return -1L;
+            }
+        }
+
+        // destPath is in the cache itself when converting packs
+        final long oldDestSize = CacheIndex.sizeOf(destPath);
+        Files.move(partFile.toPath(), destPath.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        CacheIndex.fileWritten(destPath, oldDestSize);
+        if (cachePath != null) {
+            // The file is already installed, so failing to cache it isn't an error
+            final long oldCacheSize = CacheIndex.sizeOf(cachePath);
+            try {
+                if (isVerifiedTee(teePartFile, downloadSize, file.getHashes().get("sha1"))) {
+                    Files.move(teePartFile.toPath(), cachePath.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    ChannelIO.copy(destPath.toPath(), cachePath.toPath());
+                }
+                CacheIndex.fileWritten(cachePath, oldCacheSize);
+            } catch (IOException e) {
+                rethrowIfInterrupted(e);
+                LOGGER.warn("Failed to add {} to the download cache", file.getPath(), e);
+                if (Files.deleteIfExists(cachePath.toPath()) && oldCacheSize >= 0) {
+                    CacheIndex.fileRemoved(cachePath, oldCacheSize);
+                }
+            }
+        }
+        return downloadSize;
+    }
+
+    /**
+     * Checks that a tee has exactly what was downloaded before it goes in the cache. Files without a SHA-1 are copied
+     * from their verified destination instead.
+     */
+    private static boolean isVerifiedTee(File tee, long downloadSize, byte[] expectedSha1) throws IOException {
+        if (tee == null || expectedSha1 == null || !tee.isFile() || tee.length() != downloadSize) {
+            return false;
+        }
+        if (!Arrays.equals(FileHashing.sha1(tee.toPath()), expectedSha1)) {
+            LOGGER.warn("Copy of {} for the download cache is corrupt", tee);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Rethrows {@code e} if it was caused by the install being cancelled, rather than by the file it was working on.
+     */
+    private static void rethrowIfInterrupted(IOException e) throws IOException {
+        if (e instanceof ClosedByInterruptException || Thread.currentThread().isInterrupted()) {
+            throw e;
+        }
+    }
+
+    private static BasicFileAttributes readAttributesIfExists(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private AdaptiveLimiter getDownloadLimiter(URL url) {
+        return downloadLimiters.computeIfAbsent(
+            url.getHost(), host -> new AdaptiveLimiter(host, options.getParallelDownloadCount())
+        );
+    }
+
+    private void printDownloadFailure(
+        int parallelDownloadCount, String indent, URL downloadUrl, IOException e
+    ) throws InterruptedException {
+        if (parallelDownloadCount == 1) {
+            println(indent + "   Failed to download " + downloadUrl + ": " + e, false);
+        } else {
+            println("Failed to download " + downloadUrl + ": " + e, false);
+        }
+    }
+
+    public static File getPartFile(File destPath) {
+        return new File(destPath.getPath() + ".part");
+    }
+
+    /**
+     * Prepares a digest to continue from the end of {@code partFile}. If the last attempt to download it failed in
+     * this process, its digest state is reused, otherwise whatever's already in the file is rehashed.
+     * @return The digest to continue with. This might be a saved digest instead of {@code digest}.
+     */
+    private static MultiMessageDigest resumeDigest(File partFile, long length, MultiMessageDigest digest) throws IOException {
+        final PartialDownload saved = PARTIAL_DOWNLOADS.remove(partFile);
+        if (
+            saved != null && saved.length() == length &&
+                saved.digest().getDigests().length == digest.getDigests().length
+        ) {
+            return saved.digest();
+        }
+        digest.reset();
+        if (length > 0) {
+            FileHashing.update(digest, partFile.toPath(), length);
+        }
+        return digest;
+    }
+
+    private static void savePartialDownload(File partFile, long length, MultiMessageDigest digest) {
+        if (length <= 0) return;
+        try {
+            PARTIAL_DOWNLOADS.put(partFile, new PartialDownload(length, digest.clone()));
+        } catch (CloneNotSupportedException e) {
+            LOGGER.debug("Couldn't save digest state of {}. It will be rehashed when resumed.", partFile, e);
+        }
+    }
+
+    /**
+     * Extracts overrides from the pack in a phase of their own.
+     */
+    private void extractOverrides(List<PlannedOverride> overrides) throws Exception {
+        println("\nExtracting overrides...", true);
+        final OverrideExtraction extraction = new OverrideExtraction(overrides);
+        extraction.progress = new Progress("Extracting overrides...", new AtomicInteger(), extraction.files.size());
+        listener.phaseStarted(extraction.files.size(), extraction.workerCount);
+        try {
+            WorkerPool.runParallel(extraction.workerCount, tid -> extraction.run(tid, tid), listener::workerFinished);
+        } finally {
+            try {
+                getVerifiedFiles().save();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to save verified file index", e);
+            }
+        }
+        extraction.printSummary();
+        listener.phaseFinished(extraction.progress.status());
+    }
+
+    /**
+     * The overall progress of a phase, shared by every worker in it
+     */
+    private record Progress(String status, AtomicInteger completed, int total) {
+        void report(InstallListener listener) {
+            listener.overallProgress(status, completed.get(), total);
+        }
+    }
+
+    /**
+     * Overrides, global and side-specific together, ready to be extracted by a fixed number of workers. The
+     * directories they go in are all created up front, and then the files are read in the order they're stored in
+     * the pack. In parallel, each worker extracts a contiguous range of the pack, so that every worker reads forwards
+     * through its own part of the file. Otherwise, one worker reads the whole pack once as a stream.
+     */
+    private final class OverrideExtraction {
+        final List<PlannedOverride> files = new ArrayList<>();
+        final int workerCount;
+        /**
+         * The overrides each worker extracts, or {@code null} to extract them sequentially
+         */
+        private final List<List<PlannedOverride>> ranges;
+        private final AtomicInteger extractedCount = new AtomicInteger();
+        private final int unchangedCount;
+        Progress progress;
+
+        OverrideExtraction(List<PlannedOverride> overrides) throws IOException, InterruptedException {
+            final List<PlannedOverride> toExtract = new ArrayList<>();
+            for (final PlannedOverride planned : overrides) {
+                if (planned.getAction() == PlannedAction.PRESENT) {
+                    println("Skipping unchanged override " + planned.getOverride().getPath(), false);
+                } else {
+                    toExtract.add(planned);
+                }
+            }
+            unchangedCount = overrides.size() - toExtract.size();
+            createOverrideDirectories(toExtract);
+            for (final PlannedOverride planned : toExtract) {
+                if (!planned.getOverride().isDirectory()) {
+                    files.add(planned);
+                }
+            }
+            if (options.isSequentialExtraction()) {
+                workerCount = Math.min(files.size(), 1);
+                ranges = null;
+            } else {
+                workerCount = Math.min(files.size(), options.getParallelDownloadCount());
+                ranges = partitionByOffset(files, workerCount);
+            }
+        }
+
+        /**
+         * @param worker Which of this extraction's workers this is
+         * @param tid The worker to report progress as
+         */
+        void run(int worker, int tid) throws Exception {
+            if (ranges == null) {
+                extractSequentially(tid);
+                return;
+            }
+            try (ZipFile zf = new ZipFile(pack.getPath())) {
+                for (final PlannedOverride planned : ranges.get(worker)) {
+                    extractOverride(tid, planned, planned.getOverride().openInputStream(zf));
+                }
+            }
+        }
+
+        void printSummary() throws InterruptedException {
+            println(
+                "Extracted " + files.size() + " overrides" + (unchangedCount > 0 ? ", " + unchangedCount + " unchanged" : ""),
+                true
+            );
+        }
+
+        /**
+         * Extracts every file by reading the pack once from start to finish.
+         */
+        private void extractSequentially(int tid) throws IOException, InterruptedException {
+            final Map<String, PlannedOverride> remaining = new HashMap<>();
+            for (final PlannedOverride planned : files) {
+                remaining.put(planned.getOverride().getPath(), planned);
+            }
+            try (ZipInputStream zis = new ZipInputStream(
+                new BufferedInputStream(new FileInputStream(pack.getPath()), 1024 * 1024)
+            )) {
+                ZipEntry entry;
+                while (!remaining.isEmpty() && (entry = zis.getNextEntry()) != null) {
+                    final PlannedOverride planned = remaining.remove(entry.getName());
+                    if (planned == null) continue;
+                    extractOverride(tid, planned, new FilterInputStream(zis) {
+                        @Override
+                        public void close() throws IOException {
+                            zis.closeEntry();
+                        }
+                    });
+                }
+            } catch (ZipException e) {
+                // Such as stored entries with data descriptors, which can't be streamed
+                LOGGER.warn("Couldn't stream {}. Extracting the rest of it normally.", pack.getPath(), e);
+            }
+            if (remaining.isEmpty()) return;
+            try (ZipFile zf = new ZipFile(pack.getPath())) {
+                for (final PlannedOverride planned : partitionByOffset(List.copyOf(remaining.values()), 1).get(0)) {
+                    extractOverride(tid, planned, planned.getOverride().openInputStream(zf));
+                }
+            }
+        }
+
+        private void extractOverride(int tid, PlannedOverride planned, InputStream source) throws IOException, InterruptedException {
+            final FileOverride override = planned.getOverride();
+            progress.report(listener);
+            final String status = "Extracting " + override.getPath();
+            listener.taskStarted(tid, status, override.getSize());
+            println("Extracting " + override.getPath() + " (" + extractedCount.incrementAndGet() + '/' + files.size() + ")", false);
+            listener.taskProgress(tid, status, 0L, override.getSize());
+            try (InputStream is = new TrackingInputStream(
+                source,
+                read -> listener.taskProgress(tid, status, read, override.getSize())
+            )) {
+                ChannelIO.copy(is, planned.getDestPath().toPath());
+            }
+            progress.completed().incrementAndGet();
+            // The file now has the same contents as the entry, so there's no need to hash it again next time
+            if (override.getCrc() != -1) {
+                getVerifiedFiles().putCrc32(getInstallPath(override), planned.getDestPath().toPath(), override.getCrc());
+            }
+        }
+    }
+
+    /**
+     * Creates every directory the overrides will be extracted into, once each.
+     */
+    private static void createOverrideDirectories(List<PlannedOverride> overrides) throws IOException {
+        final Set<File> dirs = new HashSet<>();
+        for (final PlannedOverride planned : overrides) {
+            final File destPath = planned.getDestPath();
+            dirs.add(planned.getOverride().isDirectory() ? destPath : destPath.getParentFile());
+        }
+        // Creating a directory creates its parents too, so only the deepest ones need to be created
+        final Set<File> parents = new HashSet<>();
+        for (final File dir : dirs) {
+            File parent = dir.getParentFile();
+            while (parent != null && parents.add(parent)) {
+                parent = parent.getParentFile();
+            }
+        }
+        for (final File dir : dirs) {
+            if (!parents.contains(dir)) {
+                Files.createDirectories(dir.toPath());
+            }
+        }
+    }
+
+    /**
+     * Splits {@code files} into {@code count} ranges, each of which is contiguous in the pack, with roughly the same
+     * amount of work in each.
+     */
+    private List<List<PlannedOverride>> partitionByOffset(List<PlannedOverride> files, int count) {
+        if (count == 0) {
+            return List.of();
+        }
+        Map<String, Long> offsets;
+        try {
+            offsets = ZipOffsets.read(pack.getPath().toPath());
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read entry offsets from {}. Extracting in central directory order.", pack.getPath(), e);
+            offsets = Map.of();
+        }
+        final Map<String, Long> offsets0 = offsets;
+        final List<PlannedOverride> sorted = new ArrayList<>(files);
+        sorted.sort(Comparator.comparingLong(planned -> offsets0.getOrDefault(planned.getOverride().getPath(), Long.MAX_VALUE)));
+
+        long remainingWeight = 0;
+        for (final PlannedOverride planned : sorted) {
+            remainingWeight += extractWeight(planned);
+        }
+        final List<List<PlannedOverride>> ranges = new ArrayList<>(count);
+        int start = 0;
+        for (int range = 0; range < count; range++) {
+            final int rangesLeft = count - range;
+            final long target = remainingWeight / rangesLeft;
+            long weight = 0;
+            int end = start;
+            // Leave at least one file for each of the remaining ranges
+            while (end < sorted.size() - (rangesLeft - 1) && (end == start || weight < target || rangesLeft == 1)) {
+                weight += extractWeight(sorted.get(end++));
+            }
+            ranges.add(sorted.subList(start, end));
+            remainingWeight -= weight;
+            start = end;
+        }
+        return ranges;
+    }
+
+    /**
+     * Roughly how long an override takes to extract, in bytes. Every file costs something to create, however small it
+     * is.
+     */
+    private static long extractWeight(PlannedOverride planned) {
+        return Math.max(planned.getOverride().getSize(), 0) + 64 * 1024;
+    }
+
+    private record PartialDownload(long length, MultiMessageDigest digest) {
+    }
+}
@@ -0,0 +1,185 @@
+package io.github.gaming32.superpack.install;
+
+import io.github.gaming32.superpack.util.DownloadResponse;
+import io.github.gaming32.superpack.util.SimpleHttp;
+import io.github.gaming32.superpack.util.ThrottledInputStream;
+import io.github.gaming32.superpack.util.TokenBucket;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Downloads a single large file as several byte ranges at once, each written straight into its place in the
+ * {@code .part} file.
+ * <p>
+ * Segments run on their own pool rather than the {@link io.github.gaming32.superpack.util.WorkerPool}, because the
+ * worker downloading the file waits for them, and could otherwise wait on segments queued behind itself.
+ */
+final class SegmentedDownload {
+    /**
+     * Files are split so that no segment is smaller than this
+     */
+    static final long MIN_SEGMENT_SIZE = 8L * 1024 * 1024;
+    static final int MAX_SEGMENTS = 8;
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+        32, 32,
+        1, TimeUnit.MINUTES,
+        new LinkedBlockingQueue<>(),
+        r -> {
+            final Thread thread = new Thread(r, "Segment-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    );
+
+    static {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private SegmentedDownload() {
+    }
+
+    static boolean shouldSegment(URL url, long size) {
+        return SimpleHttp.isHttp(url) && size >= 2 * MIN_SEGMENT_SIZE;
+    }
+
+    /**
+     * Downloads {@code url} into {@code partFile} in segments. The segment at the start of the file is downloaded on
+     * the calling thread, and is also used to check that the server supports ranges at all.
+     * <p>
+     * If any segment fails, the others are cancelled and {@code partFile} is deleted, since it has holes in it and
+     * can't be resumed.
+     * @param maxSegments The most segments to download at once, which is also the most connections used.
+     * @param teeFile If not {@code null}, everything written to {@code partFile} is also written here.
+     * @param bandwidth A bandwidth limit shared by all segments, on top of the global and per-host limits.
+     * @param onProgress Called with the total number of bytes downloaded so far. This may be called from any
+     *                   thread, and calls may overlap.
+     * @return {@code false} if the server doesn't support ranges, in which case nothing was written.
+     */
+    static boolean download(
+        URL url, int maxSegments, File partFile, File teeFile, long size, TokenBucket bandwidth, LongConsumer onProgress
+    ) throws IOException {
+        final int segmentCount = (int)Math.min(Math.min(maxSegments, MAX_SEGMENTS), size / MIN_SEGMENT_SIZE);
+        final long segmentSize = (size + segmentCount - 1) / segmentCount;
+
+        final DownloadResponse first = SimpleHttp.downloadRange(url, 0, Math.min(segmentSize, size) - 1);
+        if (first == null) {
+            return false;
+        }
+
+        final AtomicLong downloaded = new AtomicLong();
+        final List<Future<?>> futures = new ArrayList<>(segmentCount - 1);
+        try (
+            first;
+            RandomAccessFile raf = new RandomAccessFile(partFile, "rw");
+            RandomAccessFile teeRaf = teeFile != null ? new RandomAccessFile(teeFile, "rw") : null
+        ) {
+            // Allocate the whole file up front, so that segments can be written in any order
+            raf.setLength(size);
+            final FileChannel channel = raf.getChannel();
+            final FileChannel teeChannel;
+            if (teeRaf != null) {
+                teeRaf.setLength(size);
+                teeChannel = teeRaf.getChannel();
+            } else {
+                teeChannel = null;
+            }
+            for (int i = 1; i < segmentCount; i++) {
+                final long start = i * segmentSize;
+                final long end = Math.min(start + segmentSize, size);
+                futures.add(EXECUTOR.submit(() -> {
+                    try (DownloadResponse response = SimpleHttp.downloadRange(url, start, end - 1)) {
+                        if (response == null) {
+                            throw new IOException("Server stopped accepting range requests");
+                        }
+                        copySegment(
+                            new ThrottledInputStream(response.getBody(), bandwidth),
+                            channel, teeChannel, start, end - start, downloaded, onProgress
+                        );
+                    }
+                    return null;
+                }));
+            }
+            copySegment(
+                new ThrottledInputStream(first.getBody(), bandwidth),
+                channel, teeChannel, 0, Math.min(segmentSize, size), downloaded, onProgress
+            );
+            for (final Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException ioe) {
+                        throw ioe;
+                    }
+                    throw new IOException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (final Future<?> future : futures) {
+                future.cancel(true);
+            }
+            Files.deleteIfExists(partFile.toPath());
+            if (teeFile != null) {
+                Files.deleteIfExists(teeFile.toPath());
+            }
+            throw e;
+        }
+        return true;
+    }
+
+    private static void copySegment(
+        InputStream is,
+        FileChannel channel,
+        FileChannel teeChannel,
+        long start,
+        long length,
+        AtomicLong downloaded,
+        LongConsumer onProgress
+    ) throws IOException {
+        final byte[] buf = new byte[65536];
+        long written = 0;
+        int n;
+        while ((n = is.read(buf)) != -1) {
+            if (written + n > length) {
+                throw new IOException("Server sent more than the requested range");
+            }
+            writeFully(channel, ByteBuffer.wrap(buf, 0, n), start + written);
+            if (teeChannel != null) {
+                writeFully(teeChannel, ByteBuffer.wrap(buf, 0, n), start + written);
+            }
+            written += n;
+            onProgress.accept(downloaded.addAndGet(n));
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        if (written != length) {
+            throw new IOException("Segment ended after " + written + " of " + length + " bytes");
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
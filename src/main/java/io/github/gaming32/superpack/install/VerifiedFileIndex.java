@@ -0,0 +1,229 @@
+package io.github.gaming32.superpack.install;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import io.github.gaming32.superpack.util.GeneralUtilKt;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the SHA-1 of files in an instance that have already been hashed, so that reinstalling doesn't need to
+ * hash them again. Overrides are checked by CRC-32 instead, since that's what packs store for them, so those are
+ * remembered too. An entry is only trusted while the file's size, modification time, and file key (the inode, on
+ * platforms that have them) are unchanged.
+ */
+public final class VerifiedFileIndex {
+    private static final Logger LOGGER = GeneralUtilKt.getLogger();
+
+    public static final String FILE_NAME = ".superpack-verified.json";
+    private static final int VERSION = 2;
+    /**
+     * Files modified this close to when the index was saved might have been modified again without their
+     * modification time changing, depending on the filesystem's timestamp granularity
+     */
+    private static final long RACY_MARGIN = 2000;
+
+    private final Path indexFile;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private long savedAt;
+
+    private VerifiedFileIndex(Path indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Loads the index for {@code outputDir}. If the index is missing or unreadable, an empty index is returned.
+     */
+    public static VerifiedFileIndex load(File outputDir) {
+        final VerifiedFileIndex index = new VerifiedFileIndex(new File(outputDir, FILE_NAME).toPath());
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(index.indexFile))) {
+            index.read(reader);
+        } catch (NoSuchFileException e) {
+            // First install into this directory
+        } catch (Exception e) {
+            LOGGER.warn("Failed to read {}. All existing files will be rehashed.", index.indexFile, e);
+            index.entries.clear();
+        }
+        return index;
+    }
+
+    /**
+     * @return The SHA-1 of {@code path} when it was last hashed, or {@code null} if it's not known or the file has
+     * changed since.
+     */
+    public byte[] getSha1(String path, BasicFileAttributes attributes) {
+        final Entry entry = entries.get(path);
+        if (entry == null || !entry.matches(attributes) || isRacy(attributes)) return null;
+        return entry.sha1;
+    }
+
+    /**
+     * @return The CRC-32 of {@code path} when it was last checked, or {@code -1} if it's not known or the file has
+     * changed since.
+     */
+    public long getCrc32(String path, BasicFileAttributes attributes) {
+        final Entry entry = entries.get(path);
+        if (entry == null || !entry.matches(attributes) || isRacy(attributes)) return -1;
+        return entry.crc32;
+    }
+
+    /**
+     * Records that {@code path}, with the given attributes, has the given SHA-1.
+     */
+    public void put(String path, BasicFileAttributes attributes, byte[] sha1) {
+        entries.compute(path, (key, old) -> new Entry(
+            attributes.size(), attributes.lastModifiedTime().toMillis(), fileKey(attributes),
+            sha1, old != null && old.matches(attributes) ? old.crc32 : -1
+        ));
+    }
+
+    /**
+     * Records that {@code path}, with the given attributes, has the given CRC-32.
+     */
+    public void putCrc32(String path, BasicFileAttributes attributes, long crc32) {
+        entries.compute(path, (key, old) -> new Entry(
+            attributes.size(), attributes.lastModifiedTime().toMillis(), fileKey(attributes),
+            old != null && old.matches(attributes) ? old.sha1 : null, crc32
+        ));
+    }
+
+    /**
+     * Records that {@code path} has been checked, reading its current attributes from {@code file}.
+     */
+    public void putCrc32(String path, Path file, long crc32) throws IOException {
+        putCrc32(path, Files.readAttributes(file, BasicFileAttributes.class), crc32);
+    }
+
+    private boolean isRacy(BasicFileAttributes attributes) {
+        return attributes.lastModifiedTime().toMillis() + RACY_MARGIN > savedAt;
+    }
+
+    /**
+     * Records that {@code path} has been hashed, reading its current attributes from {@code file}.
+     */
+    public void put(String path, Path file, byte[] sha1) throws IOException {
+        put(path, Files.readAttributes(file, BasicFileAttributes.class), sha1);
+    }
+
+    public void remove(String path) {
+        entries.remove(path);
+    }
+
+    /**
+     * Saves the index next to the files it describes. The index is written to a temporary file first, so that an
+     * interrupted save doesn't lose the old index.
+     */
+    public void save() throws IOException {
+        savedAt = System.currentTimeMillis();
+        final Path tempFile = indexFile.resolveSibling(FILE_NAME + ".tmp");
+        try (JsonWriter writer = new JsonWriter(Files.newBufferedWriter(tempFile))) {
+            write(writer);
+        }
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void read(JsonReader reader) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "version" -> {
+                    final int version = reader.nextInt();
+                    if (version < 1 || version > VERSION) {
+                        throw new IOException("Unsupported index version " + version);
+                    }
+                }
+                case "savedAt" -> savedAt = reader.nextLong();
+                case "files" -> {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        final String path = reader.nextName();
+                        entries.put(path, readEntry(reader));
+                    }
+                    reader.endObject();
+                }
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static Entry readEntry(JsonReader reader) throws IOException {
+        long size = -1, mtime = -1;
+        String fileKey = null;
+        byte[] sha1 = null;
+        long crc32 = -1;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "size" -> size = reader.nextLong();
+                case "mtime" -> mtime = reader.nextLong();
+                case "key" -> {
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.nextNull();
+                    } else {
+                        fileKey = reader.nextString();
+                    }
+                }
+                case "sha1" -> sha1 = GeneralUtilKt.parseHexString(reader.nextString());
+                case "crc32" -> crc32 = reader.nextLong();
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (sha1 == null && crc32 == -1) {
+            throw new IOException("Index entry has no hashes");
+        }
+        return new Entry(size, mtime, fileKey, sha1, crc32);
+    }
+
+    private void write(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("version").value(VERSION);
+        writer.name("savedAt").value(savedAt);
+        writer.name("files").beginObject();
+        for (final Map.Entry<String, Entry> file : entries.entrySet()) {
+            final Entry entry = file.getValue();
+            writer.name(file.getKey()).beginObject();
+            writer.name("size").value(entry.size);
+            writer.name("mtime").value(entry.mtime);
+            writer.name("key").value(entry.fileKey);
+            if (entry.sha1 != null) {
+                writer.name("sha1").value(GeneralUtilKt.toHexString(entry.sha1));
+            }
+            if (entry.crc32 != -1) {
+                writer.name("crc32").value(entry.crc32);
+            }
+            writer.endObject();
+        }
+        writer.endObject();
+        writer.endObject();
+    }
+
+    private static String fileKey(BasicFileAttributes attributes) {
+        final Object key = attributes.fileKey();
+        return key != null ? key.toString() : null;
+    }
+
+    /**
+     * @param sha1 {@code null} if it's not known
+     * @param crc32 {@code -1} if it's not known
+     */
+    private record Entry(long size, long mtime, String fileKey, byte[] sha1, long crc32) {
+        boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size() &&
+                mtime == attributes.lastModifiedTime().toMillis() &&
+                Objects.equals(fileKey, fileKey(attributes));
+        }
+    }
+}
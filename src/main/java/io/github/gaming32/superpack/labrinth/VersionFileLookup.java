@@ -0,0 +1,92 @@
+package io.github.gaming32.superpack.labrinth;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import io.github.gaming32.superpack.SuperpackKt;
+import io.github.gaming32.superpack.util.GeneralUtilKt;
+import io.github.gaming32.superpack.util.SimpleHttp;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.net.URL;
+import java.net.http.HttpRequest;
+import java.util.*;
+
+/**
+ * Looks up which Modrinth versions files belong to by their SHA-1, many hashes per request, using
+ * {@code POST /version_files}.
+ */
+public final class VersionFileLookup {
+    private static final Logger LOGGER = GeneralUtilKt.getLogger();
+
+    /**
+     * The most hashes sent in one request, to keep request and response bodies reasonably sized
+     */
+    public static final int BATCH_SIZE = 500;
+    private static final Type RESPONSE_TYPE = new TypeToken<Map<String, Version>>() {}.getType();
+
+    private final String apiRoot;
+
+    public VersionFileLookup() {
+        this(SuperpackKt.MODRINTH_API_ROOT);
+    }
+
+    /**
+     * @param apiRoot The root of the Modrinth API, such as a local server standing in for Modrinth.
+     */
+    public VersionFileLookup(String apiRoot) {
+        this.apiRoot = apiRoot;
+    }
+
+    /**
+     * Looks up the versions that files with the given SHA-1s belong to.
+     * @return The version for each SHA-1 that was found on Modrinth, keyed by the SHA-1 as a lowercase hex string.
+     * SHA-1s that weren't found are left out.
+     */
+    public Map<String, Version> lookupSha1(Collection<byte[]> sha1s) throws IOException {
+        final Set<String> unique = new LinkedHashSet<>();
+        for (final byte[] sha1 : sha1s) {
+            unique.add(GeneralUtilKt.toHexString(sha1));
+        }
+        final List<String> hashes = new ArrayList<>(unique);
+        final Map<String, Version> result = new HashMap<>();
+        for (int start = 0; start < hashes.size(); start += BATCH_SIZE) {
+            result.putAll(lookupBatch(hashes.subList(start, Math.min(start + BATCH_SIZE, hashes.size()))));
+        }
+        LOGGER.info("Found {} of {} file(s) on Modrinth", result.size(), hashes.size());
+        return result;
+    }
+
+    /**
+     * Looks up a single file.
+     * @return The version it belongs to, or {@code null} if it's not on Modrinth.
+     */
+    public Version lookupSha1(byte[] sha1) throws IOException {
+        return lookupSha1(List.of(sha1)).get(GeneralUtilKt.toHexString(sha1));
+    }
+
+    private Map<String, Version> lookupBatch(List<String> hashes) throws IOException {
+        final JsonArray hashesJson = new JsonArray(hashes.size());
+        hashes.forEach(hashesJson::add);
+        final JsonObject body = new JsonObject();
+        body.add("hashes", hashesJson);
+        body.addProperty("algorithm", "sha1");
+
+        final URL url = SimpleHttp.createUrl(apiRoot, "/version_files", Map.of());
+        final HttpRequest request = SimpleHttp.request(url)
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+            .build();
+        try (Reader reader = new InputStreamReader(SimpleHttp.decodedBody(SimpleHttp.send(request)))) {
+            final Map<String, Version> versions = LabrinthGson.GSON.fromJson(reader, RESPONSE_TYPE);
+            return versions != null ? versions : Map.of();
+        } catch (JsonParseException e) {
+            throw new IOException("Invalid response from " + url, e);
+        }
+    }
+}
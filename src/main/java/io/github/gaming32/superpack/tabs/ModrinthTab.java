@@ -5,6 +5,8 @@ import io.github.gaming32.mrpacklib.Mrpack.EnvSide;
 import io.github.gaming32.superpack.ProgressDialog;
 import io.github.gaming32.superpack.SuperpackKt;
 import io.github.gaming32.superpack.SuperpackMainFrame;
+import io.github.gaming32.superpack.cache.CacheIndex;
+import io.github.gaming32.superpack.cache.DownloadCache;
 import io.github.gaming32.superpack.labrinth.*;
 import io.github.gaming32.superpack.modpack.Modpack;
 import io.github.gaming32.superpack.modpack.modrinth.ConversionsKt;
@@ -21,8 +23,6 @@ import java.awt.*;
 import java.io.*;
 import java.net.URI;
 import java.net.URL;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.util.Arrays;
@@ -736,7 +736,7 @@ public final class ModrinthTab extends JPanel implements HasLogger, Scrollable {
                                 }
                             };
                             if (!cacheFile.exists() || cacheFile.length() != file.getSize()) {
-                                final Thread downloadThread = new Thread(() -> {
+                                WorkerPool.execute(() -> {
                                     try {
                                         cacheFile.getParentFile().mkdirs();
                                         final String downloadFileSize = GeneralUtilKt.getHumanFileSize(file.getSize());
@@ -752,8 +752,9 @@ public final class ModrinthTab extends JPanel implements HasLogger, Scrollable {
                                             MessageDigest.getInstance("SHA-512")
                                         );
                                         long downloadSize;
+                                        final long oldCacheSize = CacheIndex.sizeOf(cacheFile);
                                         try (InputStream is = new TrackingInputStream(
-                                            new DigestInputStream(SimpleHttp.stream(downloadUrl), digest),
+                                            new DigestInputStream(SimpleHttp.downloadStream(downloadUrl), digest),
                                             read -> {
                                                 if (progress.cancelled()) {
                                                     final InterruptedIOException e = new InterruptedIOException();
@@ -770,7 +771,8 @@ public final class ModrinthTab extends JPanel implements HasLogger, Scrollable {
                                                 });
                                             }
                                         )) {
-                                            downloadSize = Files.copy(is, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                                            downloadSize = ChannelIO.copy(is, cacheFile.toPath());
+                                            CacheIndex.fileWritten(cacheFile, oldCacheSize);
                                         } catch (IOException e) {
                                             if (e instanceof InterruptedIOException) {
                                                 progress.getLogger().info("Download cancelled");
@@ -822,12 +824,11 @@ public final class ModrinthTab extends JPanel implements HasLogger, Scrollable {
                                         GeneralUtilKt.showErrorMessage(progress, e);
                                         progress.setVisible(false);
                                     }
-                                }, "PackDownloader");
-                                downloadThread.setDaemon(true);
-                                downloadThread.start();
+                                });
                                 progress.setVisible(true);
                             } else {
                                 LOGGER.info("Using cached file {}", cacheFile);
+                                DownloadCache.touch(cacheFile);
                                 completed.run();
                             }
                         });
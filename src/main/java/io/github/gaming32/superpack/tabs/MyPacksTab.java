@@ -6,6 +6,7 @@ import io.github.gaming32.superpack.MyPacks.Modpack;
 import io.github.gaming32.superpack.SuperpackKt;
 import io.github.gaming32.superpack.SuperpackMainFrame;
 import io.github.gaming32.superpack.modpack.ModpackType;
+import io.github.gaming32.superpack.util.ChannelIO;
 import io.github.gaming32.superpack.util.GeneralUtilKt;
 import io.github.gaming32.superpack.util.HasLogger;
 import kotlin.Unit;
@@ -20,8 +21,6 @@ import java.awt.event.MouseEvent;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
 import java.util.EnumMap;
 import java.util.Map;
 
@@ -75,7 +74,7 @@ public final class MyPacksTab extends JPanel implements HasLogger, Scrollable, S
                 final File outputFile = FileDialogs.saveModpack(parent, pack.getType());
                 if (outputFile == null) return;
                 try {
-                    Files.copy(pack.getPath().toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    ChannelIO.copy(pack.getPath().toPath(), outputFile.toPath());
                 } catch (IOException e) {
                     GeneralUtilKt.showErrorMessage(this, "Failed to copy file", e);
                     return;
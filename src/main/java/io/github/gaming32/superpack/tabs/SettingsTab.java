@@ -3,10 +3,15 @@ package io.github.gaming32.superpack.tabs;
 import io.github.gaming32.superpack.SuperpackKt;
 import io.github.gaming32.superpack.SuperpackMainFrame;
 import io.github.gaming32.superpack.SuperpackSettings;
+import io.github.gaming32.superpack.cache.CacheIndex;
+import io.github.gaming32.superpack.cache.CacheScrubber;
+import io.github.gaming32.superpack.install.CacheLinkMode;
 import io.github.gaming32.superpack.themes.Theme;
 import io.github.gaming32.superpack.themes.Themes;
 import io.github.gaming32.superpack.util.GeneralUtilKt;
 import io.github.gaming32.superpack.util.HasLogger;
+import io.github.gaming32.superpack.util.SimpleHttp;
+import io.github.gaming32.superpack.util.WorkerPool;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 
@@ -49,13 +54,83 @@ public final class SettingsTab extends JPanel implements HasLogger, SelectedTabH
             final JLabel pdcLabel = new JLabel("Maximum parallel download count:");
             final JSpinner parallelDownloadCount = new JSpinner(new SpinnerNumberModel(
                 SuperpackSettings.INSTANCE.getParallelDownloadCount(),
-                1, 128, 1
+                1, WorkerPool.MAX_WORKERS, 1
             ));
             parallelDownloadCount.addChangeListener(ev -> {
                 SuperpackSettings.INSTANCE.setParallelDownloadCount((int)parallelDownloadCount.getValue());
                 SuperpackKt.saveSettings();
             });
 
+            final JLabel connectTimeoutLabel = new JLabel("Connection timeout (seconds):");
+            final JSpinner connectTimeout = new JSpinner(new SpinnerNumberModel(
+                SuperpackSettings.INSTANCE.getConnectTimeout(),
+                1, 300, 1
+            ));
+            connectTimeout.addChangeListener(ev -> {
+                SuperpackSettings.INSTANCE.setConnectTimeout((int)connectTimeout.getValue());
+                SuperpackKt.saveSettings();
+                SimpleHttp.resetClient();
+            });
+
+            final JLabel readTimeoutLabel = new JLabel("Response timeout (seconds):");
+            final JSpinner readTimeout = new JSpinner(new SpinnerNumberModel(
+                SuperpackSettings.INSTANCE.getReadTimeout(),
+                1, 600, 1
+            ));
+            readTimeout.addChangeListener(ev -> {
+                SuperpackSettings.INSTANCE.setReadTimeout((int)readTimeout.getValue());
+                SuperpackKt.saveSettings();
+            });
+
+            final JLabel hedgeDelayLabel = new JLabel("Try next mirror after (ms, 0 to disable):");
+            final JSpinner hedgeDelay = new JSpinner(new SpinnerNumberModel(
+                SuperpackSettings.INSTANCE.getHedgeDelay(),
+                0, 60000, 250
+            ));
+            hedgeDelay.addChangeListener(ev -> {
+                SuperpackSettings.INSTANCE.setHedgeDelay((int)hedgeDelay.getValue());
+                SuperpackKt.saveSettings();
+            });
+
+            final JLabel globalLimitLabel = new JLabel("Total download limit (KiB/s, 0 for none):");
+            final JSpinner globalLimit = new JSpinner(new SpinnerNumberModel(
+                SuperpackSettings.INSTANCE.getGlobalDownloadLimit(),
+                0, Integer.MAX_VALUE, 256
+            ));
+            globalLimit.addChangeListener(ev -> {
+                SuperpackSettings.INSTANCE.setGlobalDownloadLimit((int)globalLimit.getValue());
+                SuperpackKt.saveSettings();
+            });
+
+            final JLabel installLimitLabel = new JLabel("Download limit per install (KiB/s, 0 for none):");
+            final JSpinner installLimit = new JSpinner(new SpinnerNumberModel(
+                SuperpackSettings.INSTANCE.getInstallDownloadLimit(),
+                0, Integer.MAX_VALUE, 256
+            ));
+            installLimit.addChangeListener(ev -> {
+                SuperpackSettings.INSTANCE.setInstallDownloadLimit((int)installLimit.getValue());
+                SuperpackKt.saveSettings();
+            });
+
+            final JLabel hostLimitLabel = new JLabel("Download limit per server (KiB/s, 0 for none):");
+            final JSpinner hostLimit = new JSpinner(new SpinnerNumberModel(
+                SuperpackSettings.INSTANCE.getHostDownloadLimit(),
+                0, Integer.MAX_VALUE, 256
+            ));
+            hostLimit.addChangeListener(ev -> {
+                SuperpackSettings.INSTANCE.setHostDownloadLimit((int)hostLimit.getValue());
+                SuperpackKt.saveSettings();
+            });
+
+            final JCheckBox sequentialExtraction = new JCheckBox(
+                "Extract overrides in a single pass (faster on hard drives)",
+                SuperpackSettings.INSTANCE.isSequentialExtraction()
+            );
+            sequentialExtraction.addActionListener(ev -> {
+                SuperpackSettings.INSTANCE.setSequentialExtraction(sequentialExtraction.isSelected());
+                SuperpackKt.saveSettings();
+            });
+
             final GroupLayout layout = new GroupLayout(generalSettings);
             generalSettings.setLayout(layout);
             layout.setAutoCreateGaps(true);
@@ -70,6 +145,31 @@ public final class SettingsTab extends JPanel implements HasLogger, SelectedTabH
                     .addComponent(pdcLabel)
                     .addComponent(parallelDownloadCount)
                 )
+                .addGroup(layout.createSequentialGroup()
+                    .addComponent(connectTimeoutLabel)
+                    .addComponent(connectTimeout)
+                )
+                .addGroup(layout.createSequentialGroup()
+                    .addComponent(readTimeoutLabel)
+                    .addComponent(readTimeout)
+                )
+                .addGroup(layout.createSequentialGroup()
+                    .addComponent(hedgeDelayLabel)
+                    .addComponent(hedgeDelay)
+                )
+                .addGroup(layout.createSequentialGroup()
+                    .addComponent(globalLimitLabel)
+                    .addComponent(globalLimit)
+                )
+                .addGroup(layout.createSequentialGroup()
+                    .addComponent(installLimitLabel)
+                    .addComponent(installLimit)
+                )
+                .addGroup(layout.createSequentialGroup()
+                    .addComponent(hostLimitLabel)
+                    .addComponent(hostLimit)
+                )
+                .addComponent(sequentialExtraction)
             );
             layout.setVerticalGroup(layout.createSequentialGroup()
                 .addGroup(layout.createParallelGroup(Alignment.CENTER)
@@ -81,6 +181,31 @@ public final class SettingsTab extends JPanel implements HasLogger, SelectedTabH
                     .addComponent(pdcLabel)
                     .addComponent(parallelDownloadCount)
                 )
+                .addGroup(layout.createParallelGroup(Alignment.CENTER)
+                    .addComponent(connectTimeoutLabel)
+                    .addComponent(connectTimeout)
+                )
+                .addGroup(layout.createParallelGroup(Alignment.CENTER)
+                    .addComponent(readTimeoutLabel)
+                    .addComponent(readTimeout)
+                )
+                .addGroup(layout.createParallelGroup(Alignment.CENTER)
+                    .addComponent(hedgeDelayLabel)
+                    .addComponent(hedgeDelay)
+                )
+                .addGroup(layout.createParallelGroup(Alignment.CENTER)
+                    .addComponent(globalLimitLabel)
+                    .addComponent(globalLimit)
+                )
+                .addGroup(layout.createParallelGroup(Alignment.CENTER)
+                    .addComponent(installLimitLabel)
+                    .addComponent(installLimit)
+                )
+                .addGroup(layout.createParallelGroup(Alignment.CENTER)
+                    .addComponent(hostLimitLabel)
+                    .addComponent(hostLimit)
+                )
+                .addComponent(sequentialExtraction)
             );
             generalSettings.setBorder(BorderFactory.createTitledBorder("General settings"));
 
@@ -113,6 +238,7 @@ public final class SettingsTab extends JPanel implements HasLogger, SelectedTabH
                         GeneralUtilKt.rmdir(SuperpackKt.CACHE_DIR.toPath());
                         //noinspection ResultOfMethodCallIgnored
                         SuperpackKt.CACHE_DIR.mkdirs();
+                        CacheIndex.recount();
                         calculateCacheSize();
                     } catch (Exception ioe) {
                         GeneralUtilKt.showErrorMessage(this, ioe);
@@ -122,21 +248,82 @@ public final class SettingsTab extends JPanel implements HasLogger, SelectedTabH
                 cacheManageThread.start();
             });
 
+            final JButton verifyCache = new JButton("Verify cache");
+            verifyCache.addActionListener(e -> {
+                verifyCache.setEnabled(false);
+                CacheScrubber.scrub(false).whenComplete((result, t) -> SwingUtilities.invokeLater(() -> {
+                    verifyCache.setEnabled(true);
+                    calculateCacheSize();
+                    if (t != null) {
+                        GeneralUtilKt.showErrorMessage(this, t);
+                        return;
+                    }
+                    JOptionPane.showMessageDialog(
+                        this,
+                        result.verified() + " file(s) are intact.\n" + (
+                            result.quarantined() == 0
+                                ? "No corrupt files were found."
+                                : result.quarantined() + " corrupt file(s) were moved to " + CacheScrubber.QUARANTINE_DIR
+                        ),
+                        "Verify cache",
+                        JOptionPane.INFORMATION_MESSAGE
+                    );
+                }));
+            });
+
+            final JLabel cacheLinkModeLabel = new JLabel("Install cached files by:");
+            final JComboBox<CacheLinkMode> cacheLinkMode = new JComboBox<>(CacheLinkMode.values());
+            cacheLinkMode.setSelectedItem(SuperpackSettings.INSTANCE.getCacheLinkMode());
+            cacheLinkMode.addActionListener(ev -> {
+                SuperpackSettings.INSTANCE.setCacheLinkMode((CacheLinkMode)cacheLinkMode.getSelectedItem());
+                SuperpackKt.saveSettings();
+            });
+
+            final JLabel cacheLimitLabel = new JLabel("Download cache limit (MiB, 0 for none):");
+            final JSpinner cacheLimit = new JSpinner(new SpinnerNumberModel(
+                SuperpackSettings.INSTANCE.getDownloadCacheLimit(),
+                0, Integer.MAX_VALUE, 256
+            ));
+            // The cache is trimmed to the new limit after the next install, rather than here, so that stepping
+            // through values doesn't evict files at each one
+            cacheLimit.addChangeListener(ev -> {
+                SuperpackSettings.INSTANCE.setDownloadCacheLimit((int)cacheLimit.getValue());
+                SuperpackKt.saveSettings();
+            });
+
             final GroupLayout layout = new GroupLayout(cacheSettings);
             cacheSettings.setLayout(layout);
             layout.setAutoCreateGaps(true);
             layout.setAutoCreateContainerGaps(true);
             layout.setHorizontalGroup(layout.createParallelGroup()
                 .addComponent(cacheSize)
+                .addGroup(layout.createSequentialGroup()
+                    .addComponent(cacheLinkModeLabel)
+                    .addComponent(cacheLinkMode)
+                )
+                .addGroup(layout.createSequentialGroup()
+                    .addComponent(cacheLimitLabel)
+                    .addComponent(cacheLimit)
+                )
                 .addGroup(layout.createSequentialGroup()
                     .addComponent(openCache)
+                    .addComponent(verifyCache)
                     .addComponent(clearCache)
                 )
             );
             layout.setVerticalGroup(layout.createSequentialGroup()
                 .addComponent(cacheSize)
+                .addGroup(layout.createParallelGroup(Alignment.CENTER)
+                    .addComponent(cacheLinkModeLabel)
+                    .addComponent(cacheLinkMode)
+                )
+                .addGroup(layout.createParallelGroup(Alignment.CENTER)
+                    .addComponent(cacheLimitLabel)
+                    .addComponent(cacheLimit)
+                )
                 .addGroup(layout.createParallelGroup(Alignment.CENTER)
                     .addComponent(openCache)
+                    .addComponent(verifyCache)
                     .addComponent(clearCache)
                 )
             );
@@ -152,11 +339,18 @@ public final class SettingsTab extends JPanel implements HasLogger, SelectedTabH
 
     private void calculateCacheSize() {
         cacheManageThread = new Thread(() -> {
-            long size;
+            final String text;
             try {
-                size = GeneralUtilKt.getDirectorySize(SuperpackKt.CACHE_DIR.toPath());
+                // This only counts the cache the first time, or if the app didn't shut down cleanly last time
+                final CacheIndex.Totals downloads = CacheIndex.getTotals(CacheIndex.Category.DOWNLOAD);
+                final CacheIndex.Totals icons = CacheIndex.getTotals(CacheIndex.Category.ICON);
+                text = "<html>Cache size: " + GeneralUtilKt.getHumanFileSizeExtended(downloads.bytes() + icons.bytes()) +
+                    "<br>Downloads: " + GeneralUtilKt.getHumanFileSize(downloads.bytes()) +
+                    " in " + downloads.files() + " file(s)" +
+                    "<br>Icons: " + GeneralUtilKt.getHumanFileSize(icons.bytes()) +
+                    " in " + icons.files() + " file(s)</html>";
             } catch (Exception e) {
-                LOGGER.error("Failed to calculate directory size", e);
+                LOGGER.error("Failed to read cache size", e);
                 if (cacheManageThread == Thread.currentThread()) {
                     SwingUtilities.invokeLater(() -> cacheSize.setText("Cache size: Failure"));
                 }
@@ -166,7 +360,7 @@ public final class SettingsTab extends JPanel implements HasLogger, SelectedTabH
                 // We were superseded by another calculation thread.
                 return;
             }
-            SwingUtilities.invokeLater(() -> cacheSize.setText("Cache size: " + GeneralUtilKt.getHumanFileSizeExtended(size)));
+            SwingUtilities.invokeLater(() -> cacheSize.setText(text));
         }, "CalculateCacheSize");
         cacheManageThread.setDaemon(true);
         cacheManageThread.start();
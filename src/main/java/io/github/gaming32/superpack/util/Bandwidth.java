@@ -0,0 +1,51 @@
+package io.github.gaming32.superpack.util;
+
+import io.github.gaming32.superpack.SuperpackSettings;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The download bandwidth limits from the settings. There's one limit shared by all downloads, one for each host, and
+ * one for each install. All of them take effect immediately when the settings change.
+ */
+public final class Bandwidth {
+    private static final TokenBucket GLOBAL = new TokenBucket(
+        () -> kibToBytes(SuperpackSettings.INSTANCE.getGlobalDownloadLimit())
+    );
+    private static final Map<String, TokenBucket> HOSTS = new ConcurrentHashMap<>();
+
+    private Bandwidth() {
+    }
+
+    public static TokenBucket forHost(String host) {
+        return HOSTS.computeIfAbsent(
+            host, h -> new TokenBucket(() -> kibToBytes(SuperpackSettings.INSTANCE.getHostDownloadLimit()))
+        );
+    }
+
+    /**
+     * Creates the limit for a single install. This should be shared by all of the install's downloads.
+     */
+    public static TokenBucket newInstallBucket() {
+        return new TokenBucket(() -> kibToBytes(SuperpackSettings.INSTANCE.getInstallDownloadLimit()));
+    }
+
+    /**
+     * Limits {@code in}, which is being downloaded from {@code url}, by the global and per-host limits, as well as
+     * any {@code extra} limits.
+     */
+    public static InputStream throttle(InputStream in, URL url, TokenBucket... extra) {
+        final TokenBucket[] buckets = new TokenBucket[extra.length + 2];
+        buckets[0] = GLOBAL;
+        buckets[1] = forHost(url.getHost());
+        System.arraycopy(extra, 0, buckets, 2, extra.length);
+        return new ThrottledInputStream(in, buckets);
+    }
+
+    private static long kibToBytes(int kib) {
+        return kib * 1024L;
+    }
+}
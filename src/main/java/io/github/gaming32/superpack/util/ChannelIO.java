@@ -0,0 +1,73 @@
+package io.github.gaming32.superpack.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Copies files through {@link FileChannel}s. File-to-file copies use {@link FileChannel#transferTo}, so that the
+ * kernel can copy them without going through the JVM at all. Copies from streams reuse a large buffer per thread
+ * instead of allocating a small one for every copy.
+ * <p>
+ * Like {@link Files#copy(Path, Path, java.nio.file.CopyOption...)} with
+ * {@link java.nio.file.StandardCopyOption#REPLACE_EXISTING}, the destination is deleted first rather than written
+ * over, so that copying over a hard link never modifies the file it's linked to.
+ */
+public final class ChannelIO {
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(
+        () -> ByteBuffer.allocate(BUFFER_SIZE)
+    );
+
+    private ChannelIO() {
+    }
+
+    /**
+     * Copies the rest of {@code in} to {@code dest}, replacing it if it exists. {@code in} isn't closed.
+     * @return The number of bytes copied
+     */
+    public static long copy(InputStream in, Path dest) throws IOException {
+        Files.deleteIfExists(dest);
+        try (FileChannel out = FileChannel.open(dest, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            // Heap buffers are written through the JDK's own per-thread direct buffer, so a direct buffer here
+            // would only add another copy
+            final ByteBuffer buffer = BUFFER.get();
+            long written = 0;
+            int n;
+            while ((n = in.read(buffer.array())) != -1) {
+                buffer.clear().limit(n);
+                while (buffer.hasRemaining()) {
+                    written += out.write(buffer);
+                }
+            }
+            return written;
+        }
+    }
+
+    /**
+     * Copies {@code source} to {@code dest}, replacing it if it exists.
+     * @return The number of bytes copied
+     */
+    public static long copy(Path source, Path dest) throws IOException {
+        Files.deleteIfExists(dest);
+        try (
+            FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+            FileChannel out = FileChannel.open(dest, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)
+        ) {
+            final long size = in.size();
+            long position = 0;
+            while (position < size) {
+                final long n = in.transferTo(position, size - position, out);
+                // The source shrank while it was being copied
+                if (n <= 0) break;
+                position += n;
+            }
+            return position;
+        }
+    }
+}
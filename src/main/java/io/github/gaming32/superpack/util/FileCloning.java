@@ -0,0 +1,109 @@
+package io.github.gaming32.superpack.util;
+
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Platform;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Copy-on-write file clones (reflinks), which share their data with the original until either is modified. These
+ * are supported by Btrfs, XFS, and ZFS on Linux through {@code FICLONE}, and by APFS on macOS.
+ */
+public final class FileCloning {
+    private static final Logger LOGGER = GeneralUtilKt.getLogger();
+
+    private interface LinuxLibC extends Library {
+        LinuxLibC INSTANCE = Native.load("c", LinuxLibC.class);
+
+        int O_RDONLY = 0;
+        int O_WRONLY = 01;
+        int O_CREAT = 0100;
+        int O_EXCL = 0200;
+        NativeLong FICLONE = new NativeLong(0x40049409L);
+
+        int open(String path, int flags, int mode);
+
+        int ioctl(int fd, NativeLong request, int arg);
+
+        int close(int fd);
+    }
+
+    private interface DarwinLibC extends Library {
+        DarwinLibC INSTANCE = Native.load("c", DarwinLibC.class);
+
+        int clonefile(String src, String dst, int flags);
+    }
+
+    private FileCloning() {
+    }
+
+    /**
+     * Clones {@code source} to {@code dest}, replacing {@code dest} if it exists.
+     * @return {@code false} if the platform or filesystem doesn't support clones, or the files are on different
+     * filesystems. {@code dest} may have been deleted in this case.
+     */
+    public static boolean tryClone(Path source, Path dest) {
+        final String src = source.toAbsolutePath().toString();
+        final String dst = dest.toAbsolutePath().toString();
+        try {
+            if (Platform.isLinux()) {
+                return cloneLinux(src, dst, dest);
+            }
+            if (Platform.isMac()) {
+                //noinspection ResultOfMethodCallIgnored
+                dest.toFile().delete();
+                if (DarwinLibC.INSTANCE.clonefile(src, dst, 0) == 0) {
+                    return true;
+                }
+                LOGGER.debug("clonefile {} -> {} failed with errno {}", src, dst, Native.getLastError());
+            }
+        } catch (LinkageError e) {
+            LOGGER.debug("Native file cloning unavailable", e);
+        }
+        return false;
+    }
+
+    private static boolean cloneLinux(String src, String dst, Path dest) {
+        final LinuxLibC libc = LinuxLibC.INSTANCE;
+        final int srcFd = libc.open(src, LinuxLibC.O_RDONLY, 0);
+        if (srcFd < 0) {
+            LOGGER.debug("Failed to open {} for cloning: errno {}", src, Native.getLastError());
+            return false;
+        }
+        try {
+            // Never open the old file for writing, since it could be a hard link to the source or another file
+            try {
+                Files.deleteIfExists(dest);
+            } catch (IOException e) {
+                LOGGER.debug("Failed to delete {} before cloning", dst, e);
+                return false;
+            }
+            final int dstFd = libc.open(dst, LinuxLibC.O_WRONLY | LinuxLibC.O_CREAT | LinuxLibC.O_EXCL, 0644);
+            if (dstFd < 0) {
+                LOGGER.debug("Failed to open {} for cloning: errno {}", dst, Native.getLastError());
+                return false;
+            }
+            final boolean success;
+            try {
+                success = libc.ioctl(dstFd, LinuxLibC.FICLONE, srcFd) == 0;
+                if (!success) {
+                    LOGGER.debug("FICLONE {} -> {} failed with errno {}", src, dst, Native.getLastError());
+                }
+            } finally {
+                libc.close(dstFd);
+            }
+            if (!success) {
+                //noinspection ResultOfMethodCallIgnored
+                dest.toFile().delete();
+            }
+            return success;
+        } finally {
+            libc.close(srcFd);
+        }
+    }
+}
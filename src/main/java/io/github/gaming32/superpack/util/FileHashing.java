@@ -0,0 +1,158 @@
+package io.github.gaming32.superpack.util;
+
+import com.sun.jna.Platform;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Hashes files without copying them through small heap buffers. Large files are memory-mapped, and smaller ones are
+ * read into a large direct buffer, so hashing is limited by the CPU rather than by syscalls.
+ * <p>
+ * Files are never memory-mapped on Windows. A mapping stays open until it's garbage collected, and Windows won't move
+ * or delete a file while it's mapped, which hashed files often are straight afterwards.
+ * <p>
+ * Whole-file hashes are computed on a pool with one thread per CPU, so that many callers hashing at once don't
+ * oversubscribe the CPU. A single file is always hashed sequentially, since none of the hashes used can be split.
+ */
+public final class FileHashing {
+    /**
+     * Files at least this large are memory-mapped, where mapping is allowed
+     */
+    private static final long MAP_THRESHOLD = 4L * 1024 * 1024;
+    private static final boolean CAN_MAP = !Platform.isWindows();
+    /**
+     * The most of a file that's mapped at once
+     */
+    private static final long MAP_CHUNK = 64L * 1024 * 1024;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(
+        () -> ByteBuffer.allocateDirect(BUFFER_SIZE)
+    );
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+        Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(),
+        1, TimeUnit.MINUTES,
+        new LinkedBlockingQueue<>(),
+        r -> {
+            final Thread thread = new Thread(r, "Hasher-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    );
+
+    static {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private FileHashing() {
+    }
+
+    /**
+     * Feeds the first {@code length} bytes of {@code file} into {@code digest} on the calling thread.
+     */
+    public static void update(MessageDigest digest, Path file, long length) throws IOException {
+        update(digest, file, length, null);
+    }
+
+    /**
+     * Like {@link #update(MessageDigest, Path, long)}, but takes a token from {@code throttle} for each byte read.
+     * @param throttle A limit on how fast the file is read, or {@code null} for no limit.
+     */
+    public static void update(MessageDigest digest, Path file, long length, TokenBucket throttle) throws IOException {
+        read(file, length, throttle, digest::update);
+    }
+
+    /**
+     * Computes the CRC-32 of {@code file} on the calling thread. It's cheap enough that it isn't worth waiting for
+     * the hashing pool.
+     */
+    public static long crc32(Path file) throws IOException {
+        final CRC32 crc = new CRC32();
+        read(file, Files.size(file), null, crc::update);
+        return crc.getValue();
+    }
+
+    private static void read(Path file, long length, TokenBucket throttle, Consumer<ByteBuffer> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (CAN_MAP && length >= MAP_THRESHOLD) {
+                for (long position = 0; position < length; position += MAP_CHUNK) {
+                    final long chunk = Math.min(MAP_CHUNK, length - position);
+                    if (throttle != null) {
+                        throttle.acquire(chunk);
+                    }
+                    consumer.accept(channel.map(FileChannel.MapMode.READ_ONLY, position, chunk));
+                    if (Thread.interrupted()) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+                return;
+            }
+            final ByteBuffer buffer = BUFFER.get();
+            long remaining = length;
+            while (remaining > 0) {
+                buffer.clear();
+                if (remaining < buffer.capacity()) {
+                    buffer.limit((int)remaining);
+                }
+                final int read = channel.read(buffer);
+                if (read == -1) break;
+                if (throttle != null) {
+                    throttle.acquire(read);
+                }
+                remaining -= read;
+                buffer.flip();
+                consumer.accept(buffer);
+            }
+        }
+    }
+
+    /**
+     * Computes the hash of {@code file} with a new digest for {@code algorithm} on the hashing pool.
+     */
+    public static CompletableFuture<byte[]> hashAsync(Path file, String algorithm) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                final MessageDigest digest = MessageDigest.getInstance(algorithm);
+                update(digest, file, file.toFile().length());
+                return digest.digest();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, EXECUTOR);
+    }
+
+    /**
+     * Computes the hash of {@code file} on the hashing pool, and waits for it.
+     */
+    public static byte[] hash(Path file, String algorithm) throws IOException {
+        try {
+            return hashAsync(file, algorithm).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while hashing " + file);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioe) {
+                throw ioe;
+            }
+            throw new IOException("Failed to hash " + file, e.getCause());
+        }
+    }
+
+    public static byte[] sha1(Path file) throws IOException {
+        return hash(file, "SHA-1");
+    }
+}
@@ -0,0 +1,133 @@
+package io.github.gaming32.superpack.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closes {@code in} if a read waits longer than {@code timeout} for any data, so that a connection that stalls
+ * partway through a response fails instead of blocking forever. Only time spent waiting inside {@code in} counts, so
+ * callers that read slowly, such as {@link ThrottledInputStream}s wrapping this, never time out.
+ * <p>
+ * A read that times out throws a {@link SocketTimeoutException}.
+ */
+public class IdleTimeoutInputStream extends FilterInputStream {
+    private static final Logger LOGGER = GeneralUtilKt.getLogger();
+
+    /**
+     * How often each stream is checked, at most
+     */
+    private static final long MAX_CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "IdleTimeoutWatchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long timeoutNanos;
+    private final ScheduledFuture<?> check;
+    /**
+     * When the current read started, or 0 if no read is running
+     */
+    private volatile long readStarted;
+    private volatile boolean timedOut;
+
+    public IdleTimeoutInputStream(InputStream in, Duration timeout) {
+        super(in);
+        timeoutNanos = timeout.toNanos();
+        final long interval = Math.max(1, Math.min(MAX_CHECK_INTERVAL_NANOS, timeoutNanos / 4));
+        check = WATCHDOG.scheduleWithFixedDelay(this::checkIdle, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public int read() throws IOException {
+        startRead();
+        try {
+            return super.read();
+        } catch (IOException e) {
+            throw translate(e);
+        } finally {
+            readStarted = 0;
+        }
+    }
+
+    @Override
+    public int read(byte @NotNull [] b, int off, int len) throws IOException {
+        startRead();
+        try {
+            return in.read(b, off, len);
+        } catch (IOException e) {
+            throw translate(e);
+        } finally {
+            readStarted = 0;
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        startRead();
+        try {
+            return in.skip(n);
+        } catch (IOException e) {
+            throw translate(e);
+        } finally {
+            readStarted = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        check.cancel(false);
+        super.close();
+    }
+
+    private void startRead() throws IOException {
+        if (timedOut) {
+            throw timeoutException();
+        }
+        // 0 means no read is running
+        readStarted = System.nanoTime() | 1;
+    }
+
+    private IOException translate(IOException e) {
+        if (!timedOut) {
+            return e;
+        }
+        final IOException timeout = timeoutException();
+        timeout.initCause(e);
+        return timeout;
+    }
+
+    private SocketTimeoutException timeoutException() {
+        return new SocketTimeoutException(
+            "No data received for " + TimeUnit.NANOSECONDS.toSeconds(timeoutNanos) + " seconds"
+        );
+    }
+
+    private void checkIdle() {
+        final long started = readStarted;
+        if (started == 0 || System.nanoTime() - started < timeoutNanos) return;
+        timedOut = true;
+        final ScheduledFuture<?> check = this.check;
+        // This can run before the constructor has stored the check, if the timeout is tiny
+        if (check != null) {
+            check.cancel(false);
+        }
+        try {
+            // Closing the stream makes the blocked read fail
+            in.close();
+        } catch (IOException e) {
+            LOGGER.debug("Failed to close stalled stream", e);
+        }
+    }
+}
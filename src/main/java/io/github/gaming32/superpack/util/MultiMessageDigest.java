@@ -2,7 +2,7 @@ package io.github.gaming32.superpack.util;
 
 import java.security.MessageDigest;
 
-public final class MultiMessageDigest extends MessageDigest {
+public final class MultiMessageDigest extends MessageDigest implements Cloneable {
     private final MessageDigest[] digests;
 
     public MultiMessageDigest(MessageDigest... digests) {
@@ -55,4 +55,13 @@ public final class MultiMessageDigest extends MessageDigest {
             digest.reset();
         }
     }
+
+    @Override
+    public MultiMessageDigest clone() throws CloneNotSupportedException {
+        final MessageDigest[] clonedDigests = new MessageDigest[digests.length];
+        for (int i = 0; i < digests.length; i++) {
+            clonedDigests[i] = (MessageDigest)digests[i].clone();
+        }
+        return new MultiMessageDigest(clonedDigests);
+    }
 }
@@ -0,0 +1,57 @@
+package io.github.gaming32.superpack.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Takes a token from each of {@code buckets} for every byte read.
+ */
+public class ThrottledInputStream extends FilterInputStream {
+    /**
+     * The most read at once, so that low limits don't lead to long stalls after each read
+     */
+    private static final int MAX_READ = 16384;
+
+    private final TokenBucket[] buckets;
+
+    public ThrottledInputStream(InputStream in, TokenBucket... buckets) {
+        super(in);
+        this.buckets = buckets;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int result = super.read();
+        if (result != -1) {
+            acquire(1);
+        }
+        return result;
+    }
+
+    @Override
+    public int read(byte @NotNull [] b, int off, int len) throws IOException {
+        len = in.read(b, off, Math.min(len, MAX_READ));
+        if (len > 0) {
+            acquire(len);
+        }
+        return len;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        n = in.skip(n);
+        if (n > 0) {
+            acquire(n);
+        }
+        return n;
+    }
+
+    private void acquire(long amount) throws IOException {
+        for (final TokenBucket bucket : buckets) {
+            bucket.acquire(amount);
+        }
+    }
+}
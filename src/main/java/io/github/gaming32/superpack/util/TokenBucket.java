@@ -0,0 +1,54 @@
+package io.github.gaming32.superpack.util;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket for limiting bandwidth. Up to one second's worth of tokens can be saved up, so short bursts are
+ * allowed.
+ * <p>
+ * The rate is read on every call, so it can be changed while downloads are running. Callers that take more tokens
+ * than are available go into debt and wait for it to be paid off, so that many threads sharing a bucket are each
+ * slowed down in proportion to how much they're downloading.
+ */
+public final class TokenBucket {
+    private final LongSupplier rate;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * @param rate Supplies the rate in bytes per second, or {@code 0} for no limit.
+     */
+    public TokenBucket(LongSupplier rate) {
+        this.rate = rate;
+    }
+
+    /**
+     * Takes {@code amount} tokens, waiting until they're available.
+     */
+    public void acquire(long amount) throws InterruptedIOException {
+        final long waitNanos;
+        synchronized (this) {
+            final long rate = this.rate.getAsLong();
+            final long now = System.nanoTime();
+            if (rate <= 0) {
+                tokens = 0;
+                lastRefill = now;
+                return;
+            }
+            tokens = Math.min(rate, tokens + (now - lastRefill) * (rate / 1e9));
+            lastRefill = now;
+            tokens -= amount;
+            waitNanos = tokens < 0 ? (long)(-tokens / rate * 1e9) : 0;
+        }
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+            }
+        }
+    }
+}
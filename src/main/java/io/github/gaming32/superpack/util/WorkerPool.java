@@ -0,0 +1,150 @@
+package io.github.gaming32.superpack.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntConsumer;
+
+/**
+ * A process-wide pool of worker threads shared by everything that does work in parallel, so that threads are reused
+ * between phases, installs, and tabs instead of being created for each one.
+ */
+public final class WorkerPool {
+    /**
+     * The maximum number of threads the pool will ever have, and therefore the maximum useful parallelism.
+     */
+    public static final int MAX_WORKERS = 128;
+
+    private static final int NOT_STARTED = 0;
+    private static final int STARTED = 1;
+    private static final int CANCELLED_BEFORE_START = 2;
+
+    private static final Object SUCCESS = new Object();
+    private static final Object CANCELLED = new Object();
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+        MAX_WORKERS, MAX_WORKERS,
+        1, TimeUnit.MINUTES,
+        new LinkedBlockingQueue<>(),
+        r -> {
+            final Thread thread = new Thread(r, "Worker-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    );
+
+    static {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private WorkerPool() {
+    }
+
+    public static ExecutorService getExecutor() {
+        return EXECUTOR;
+    }
+
+    public static void execute(Runnable task) {
+        EXECUTOR.execute(task);
+    }
+
+    /**
+     * Runs {@code worker} {@code parallelCount} times in parallel, and waits for every run to finish.
+     * <p>
+     * This fails fast: as soon as one worker throws, every other worker is interrupted, and the first exception is
+     * rethrown once all of them have stopped (with any others added as suppressed exceptions). The same happens if
+     * a worker is interrupted, or if the calling thread is interrupted while waiting, in which case
+     * {@link InterruptedException} is thrown.
+     *
+     * @param onWorkerDone Called on the worker's thread with its ID after it stops, no matter how it stopped.
+     */
+    public static void runParallel(int parallelCount, Worker worker, IntConsumer onWorkerDone) throws Exception {
+        if (parallelCount <= 0) return;
+        final BlockingQueue<Object> completions = new LinkedBlockingQueue<>();
+        // Whoever moves a worker out of the NOT_STARTED state is responsible for reporting its completion
+        final AtomicIntegerArray states = new AtomicIntegerArray(parallelCount);
+        final List<Future<?>> futures = new ArrayList<>(parallelCount);
+        for (int i = 0; i < parallelCount; i++) {
+            final int tid = i;
+            futures.add(EXECUTOR.submit(() -> {
+                if (!states.compareAndSet(tid, NOT_STARTED, STARTED)) return;
+                Object result = SUCCESS;
+                try {
+                    worker.run(tid);
+                } catch (InterruptedException e) {
+                    result = CANCELLED;
+                } catch (Throwable t) {
+                    result = t;
+                } finally {
+                    try {
+                        onWorkerDone.accept(tid);
+                    } finally {
+                        completions.add(result);
+                    }
+                }
+            }));
+        }
+
+        Throwable failure = null;
+        boolean cancelled = false;
+        int remaining = parallelCount;
+        while (remaining > 0) {
+            final Object result;
+            try {
+                result = completions.take();
+            } catch (InterruptedException e) {
+                if (!cancelled) {
+                    cancelled = true;
+                    cancelAll(futures, states, completions, onWorkerDone);
+                }
+                continue;
+            }
+            remaining--;
+            if (result == SUCCESS) continue;
+            if (result instanceof Throwable t) {
+                if (failure == null) {
+                    failure = t;
+                } else if (failure != t) {
+                    failure.addSuppressed(t);
+                }
+            }
+            if (!cancelled) {
+                cancelled = true;
+                cancelAll(futures, states, completions, onWorkerDone);
+            }
+        }
+
+        if (failure instanceof Exception e) {
+            throw e;
+        }
+        if (failure instanceof Error e) {
+            throw e;
+        }
+        if (cancelled) {
+            throw new InterruptedException();
+        }
+    }
+
+    private static void cancelAll(
+        List<Future<?>> futures, AtomicIntegerArray states, BlockingQueue<Object> completions, IntConsumer onWorkerDone
+    ) {
+        for (int tid = 0; tid < futures.size(); tid++) {
+            if (states.compareAndSet(tid, NOT_STARTED, CANCELLED_BEFORE_START)) {
+                // It never ran, so it'll never report itself
+                futures.get(tid).cancel(false);
+                onWorkerDone.accept(tid);
+                completions.add(CANCELLED);
+            } else {
+                futures.get(tid).cancel(true);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface Worker {
+        void run(int tid) throws Exception;
+    }
+}
@@ -0,0 +1,127 @@
+package io.github.gaming32.superpack.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+/**
+ * Reads where each entry of a zip file starts, which {@link java.util.zip.ZipFile} doesn't expose. Reading entries in
+ * this order reads the file front to back, instead of seeking around it in central directory order.
+ */
+public final class ZipOffsets {
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int ZIP64_EOCD_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EOCD_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int CEN_SIGNATURE = 0x02014b50;
+    private static final int CEN_SIZE = 46;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private ZipOffsets() {
+    }
+
+    /**
+     * @return The offset of each entry's local header, keyed by entry name. Names are decoded as UTF-8, the same as
+     * {@link java.util.zip.ZipFile} does by default.
+     */
+    public static Map<String, Long> read(Path zipFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(zipFile, StandardOpenOption.READ)) {
+            final long fileSize = channel.size();
+            final long eocdPos = findEndOfCentralDirectory(channel, fileSize);
+            final ByteBuffer eocd = readFully(channel, eocdPos, EOCD_SIZE);
+            long entryCount = Short.toUnsignedLong(eocd.getShort(10));
+            long cenSize = Integer.toUnsignedLong(eocd.getInt(12));
+            long cenOffset = Integer.toUnsignedLong(eocd.getInt(16));
+
+            if (
+                (entryCount == 0xFFFF || cenSize == ZIP64_MAGIC || cenOffset == ZIP64_MAGIC) &&
+                    eocdPos >= ZIP64_EOCD_LOCATOR_SIZE
+            ) {
+                final ByteBuffer locator = readFully(channel, eocdPos - ZIP64_EOCD_LOCATOR_SIZE, ZIP64_EOCD_LOCATOR_SIZE);
+                if (locator.getInt(0) == ZIP64_EOCD_LOCATOR_SIGNATURE) {
+                    final ByteBuffer zip64Eocd = readFully(channel, locator.getLong(8), 56);
+                    if (zip64Eocd.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+                        throw new ZipException("Invalid ZIP64 end of central directory record");
+                    }
+                    entryCount = zip64Eocd.getLong(32);
+                    cenSize = zip64Eocd.getLong(40);
+                    cenOffset = zip64Eocd.getLong(48);
+                }
+            }
+            if (cenSize > Integer.MAX_VALUE || cenOffset + cenSize > fileSize) {
+                throw new ZipException("Invalid central directory");
+            }
+
+            final ByteBuffer cen = readFully(channel, cenOffset, (int)cenSize);
+            final Map<String, Long> offsets = new HashMap<>((int)Math.min(entryCount, 1 << 20) * 4 / 3 + 1);
+            int pos = 0;
+            while (pos + CEN_SIZE <= cen.limit() && cen.getInt(pos) == CEN_SIGNATURE) {
+                final int nameLength = Short.toUnsignedInt(cen.getShort(pos + 28));
+                final int extraLength = Short.toUnsignedInt(cen.getShort(pos + 30));
+                final int commentLength = Short.toUnsignedInt(cen.getShort(pos + 32));
+                final byte[] name = new byte[nameLength];
+                cen.get(pos + CEN_SIZE, name);
+                long offset = Integer.toUnsignedLong(cen.getInt(pos + 42));
+                if (offset == ZIP64_MAGIC) {
+                    offset = readZip64Offset(cen, pos, pos + CEN_SIZE + nameLength, extraLength);
+                }
+                offsets.put(new String(name, StandardCharsets.UTF_8), offset);
+                pos += CEN_SIZE + nameLength + extraLength + commentLength;
+            }
+            return offsets;
+        }
+    }
+
+    private static long findEndOfCentralDirectory(FileChannel channel, long fileSize) throws IOException {
+        // The record is at the end of the file, followed by a comment of at most 65535 bytes
+        final int searchSize = (int)Math.min(fileSize, EOCD_SIZE + 0xFFFF);
+        final ByteBuffer tail = readFully(channel, fileSize - searchSize, searchSize);
+        for (int pos = searchSize - EOCD_SIZE; pos >= 0; pos--) {
+            if (tail.getInt(pos) == EOCD_SIGNATURE) {
+                return fileSize - searchSize + pos;
+            }
+        }
+        throw new ZipException("End of central directory not found");
+    }
+
+    private static long readZip64Offset(ByteBuffer cen, int entryPos, int extraPos, int extraLength) throws ZipException {
+        final int extraEnd = extraPos + extraLength;
+        while (extraPos + 4 <= extraEnd) {
+            final int id = Short.toUnsignedInt(cen.getShort(extraPos));
+            final int size = Short.toUnsignedInt(cen.getShort(extraPos + 2));
+            if (id == ZIP64_EXTRA_ID) {
+                // The offset comes after whichever of the sizes are also too large for the central directory
+                int fieldPos = extraPos + 4;
+                if (Integer.toUnsignedLong(cen.getInt(entryPos + 24)) == ZIP64_MAGIC) {
+                    fieldPos += 8;
+                }
+                if (Integer.toUnsignedLong(cen.getInt(entryPos + 20)) == ZIP64_MAGIC) {
+                    fieldPos += 8;
+                }
+                if (fieldPos + 8 > extraPos + 4 + size) break;
+                return cen.getLong(fieldPos);
+            }
+            extraPos += 4 + size;
+        }
+        throw new ZipException("Missing ZIP64 local header offset");
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new ZipException("Unexpected end of zip file");
+            }
+        }
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,176 @@
+@file:JvmName("SuperpackHeadless")
+
+package io.github.gaming32.superpack
+
+import io.github.gaming32.superpack.cache.CacheScrubber
+import io.github.gaming32.superpack.install.CacheLinkMode
+import io.github.gaming32.superpack.install.InstallListener
+import io.github.gaming32.superpack.install.InstallOptions
+import io.github.gaming32.superpack.install.InstallPlan
+import io.github.gaming32.superpack.install.PlannedAction
+import io.github.gaming32.superpack.install.PackInstaller
+import io.github.gaming32.superpack.modpack.Compatibility
+import io.github.gaming32.superpack.modpack.Modpack
+import io.github.gaming32.superpack.modpack.Side
+import io.github.gaming32.superpack.util.getHumanFileSize
+import io.github.gaming32.superpack.util.getHumanFileSizeExtended
+import io.github.gaming32.superpack.util.prettyDuration
+import io.github.gaming32.superpack.util.toFile
+import io.github.oshai.KotlinLogging
+import java.util.zip.ZipFile
+import kotlin.system.exitProcess
+
+private val logger = KotlinLogging.logger {}
+
+private const val USAGE = """Usage: superpack --headless [options] <pack file>
+
+Options:
+  -o, --output <dir>          The directory to install the pack into (required)
+  -s, --side <client|server>  The side to install for (default: client)
+  -j, --threads <count>       The maximum number of parallel downloads (default: from settings)
+  --hedge-delay <ms>          Also try the next mirror if one hasn't responded after this long, or 0 to
+                              disable (default: from settings)
+  --link-mode <mode>          How to install files from the download cache: copy, clone, or hardlink
+                              (default: from settings)
+  --cache-limit <MiB>         Evict the least recently used files from the download cache after installing,
+                              until it's this small, or 0 for no limit (default: from settings)
+  --verify-cache              Check every file in the download cache before installing, and quarantine
+                              corrupt ones
+  --skip-overrides            Don't extract overrides
+  --sequential-extract        Extract overrides by reading the pack once from start to finish, which is faster
+                              on hard drives (default: from settings)
+  --no-optional               Skip all optional files
+  --skip-optional <path>      Skip a specific optional file (may be repeated)
+  --dry-run                   Print what would be downloaded and copied, without installing anything"""
+
+/**
+ * Installs a pack without creating any UI. Everything is reported through the log, so this is suitable for running
+ * in scripts and containers.
+ */
+fun headlessMain(args: Array<String>) {
+    System.setProperty("java.awt.headless", "true")
+    val options = InstallOptions()
+    var packFile: String? = null
+    var noOptional = false
+    var dryRun = false
+    var threads: Int? = null
+    var hedgeDelay: Int? = null
+    var linkMode: CacheLinkMode? = null
+    var cacheLimit: Int? = null
+    var verifyCache = false
+    var sequentialExtract = false
+
+    var i = 0
+    fun nextArg(option: String) = args.getOrNull(++i) ?: usageError("Missing value for $option")
+    while (i < args.size) {
+        when (val arg = args[i]) {
+            "-o", "--output" -> options.outputDir = nextArg(arg).toFile()
+            "-s", "--side" -> options.side = nextArg(arg).let { side ->
+                Side.values().firstOrNull { it.name.equals(side, ignoreCase = true) }
+                    ?: usageError("Unknown side $side")
+            }
+            "-j", "--threads" -> threads = nextArg(arg).toIntOrNull()?.takeIf { it > 0 }
+                ?: usageError("Thread count must be a positive integer")
+            "--hedge-delay" -> hedgeDelay = nextArg(arg).toIntOrNull()?.takeIf { it >= 0 }
+                ?: usageError("Hedge delay must be a non-negative integer")
+            "--link-mode" -> linkMode = nextArg(arg).let { mode ->
+                CacheLinkMode.values().firstOrNull { it.name.equals(mode, ignoreCase = true) }
+                    ?: usageError("Unknown link mode $mode")
+            }
+            "--cache-limit" -> cacheLimit = nextArg(arg).toIntOrNull()?.takeIf { it >= 0 }
+                ?: usageError("Cache limit must be a non-negative integer")
+            "--verify-cache" -> verifyCache = true
+            "--skip-overrides" -> options.isSkipOverrides = true
+            "--sequential-extract" -> sequentialExtract = true
+            "--no-optional" -> noOptional = true
+            "--skip-optional" -> options.skippedOptionalFiles.add(nextArg(arg))
+            "--dry-run" -> dryRun = true
+            "-h", "--help" -> {
+                println(USAGE)
+                exitProcess(0)
+            }
+            else -> {
+                if (arg.startsWith("-") || packFile != null) {
+                    usageError("Unexpected argument $arg")
+                }
+                packFile = arg
+            }
+        }
+        i++
+    }
+    if (packFile == null) {
+        usageError("No pack file specified")
+    }
+    if (options.outputDir == null) {
+        usageError("No output directory specified")
+    }
+
+    loadSettings()
+    // Packs in My Packs keep their files in the download cache
+    loadMyPacks()
+    cacheLimit?.let { SuperpackSettings.INSTANCE.downloadCacheLimit = it }
+    options.parallelDownloadCount = threads ?: SuperpackSettings.INSTANCE.parallelDownloadCount
+    options.hedgeDelay = hedgeDelay ?: SuperpackSettings.INSTANCE.hedgeDelay
+    options.cacheLinkMode = linkMode ?: SuperpackSettings.INSTANCE.cacheLinkMode
+    options.isSequentialExtraction = sequentialExtract || SuperpackSettings.INSTANCE.isSequentialExtraction
+
+    if (verifyCache) {
+        try {
+            CacheScrubber.scrub(false).get()
+        } catch (e: Exception) {
+            logger.error("Failed to verify download cache", e)
+            exitProcess(1)
+        }
+    }
+
+    val succeeded = try {
+        Modpack.open(ZipFile(packFile)).use { pack ->
+            logger.info("Installing {} {} to {}", pack.name, pack.version, options.outputDir)
+            if (noOptional) {
+                pack.getAllFiles(options.side, Compatibility.OPTIONAL).mapTo(options.skippedOptionalFiles) { it.path }
+            }
+            val installer = PackInstaller(pack, options, InstallListener.NONE)
+            if (dryRun) {
+                printPlan(installer.plan())
+                return@use true
+            }
+            val result = installer.install()
+            logger.info(
+                "Install finished in {}, downloading {}",
+                prettyDuration(System.currentTimeMillis() - result.startTime),
+                getHumanFileSizeExtended(result.downloadedBytes)
+            )
+            result.failedFiles.isEmpty()
+        }
+    } catch (e: InterruptedException) {
+        logger.error("Install cancelled")
+        false
+    } catch (e: Exception) {
+        logger.error("Install failed", e)
+        false
+    }
+    exitProcess(if (succeeded) 0 else 1)
+}
+
+private fun printPlan(plan: InstallPlan) {
+    for (file in plan.files) {
+        if (file.action == PlannedAction.DOWNLOAD) {
+            println("download ${file.file.path} (${getHumanFileSize(file.file.size)})")
+        } else if (file.action == PlannedAction.FROM_CACHE) {
+            println("cached   ${file.file.path}")
+        }
+    }
+    println()
+    for (action in PlannedAction.values()) {
+        println("${action.name.lowercase().padEnd(13)} ${plan.count(action)}")
+    }
+    println("To download: ${getHumanFileSizeExtended(plan.bytesToDownload)}")
+    println("To copy:     ${getHumanFileSizeExtended(plan.bytesToCopy)}")
+}
+
+private fun usageError(message: String): Nothing {
+    System.err.println(message)
+    System.err.println()
+    System.err.println(USAGE)
+    exitProcess(2)
+}
@@ -0,0 +1,14 @@
+package io.github.gaming32.superpack.install
+
+import io.github.gaming32.superpack.modpack.ModpackFile
+
+/**
+ * @property overridesFiles Files that weren't found on Modrinth, and were included in the pack directly
+ * @property thirdPartyDisabled Files that couldn't be included at all, because their author disabled 3rd party
+ * downloads
+ */
+data class ConversionResult(
+    val startTime: Long,
+    val overridesFiles: List<ModpackFile>,
+    val thirdPartyDisabled: List<ModpackFile>
+)
@@ -0,0 +1,54 @@
+package io.github.gaming32.superpack.install
+
+import io.github.gaming32.superpack.modpack.FileOverride
+import io.github.gaming32.superpack.modpack.ModpackFile
+import io.github.gaming32.superpack.modpack.Side
+import java.io.File
+
+enum class PlannedAction {
+    /** An optional file the user chose not to install */
+    SKIP_OPTIONAL,
+    /** The file is already installed with the right contents */
+    PRESENT,
+    /** The file is in the download cache, and just needs to be copied */
+    FROM_CACHE,
+    DOWNLOAD,
+    /** The override needs to be extracted from the pack */
+    EXTRACT
+}
+
+class PlannedFile(
+    val file: ModpackFile,
+    val destPath: File,
+    val action: PlannedAction,
+    /** Where the file is, or should be, in the download cache. `null` if the file has no SHA-1. */
+    val cacheFile: File?
+)
+
+/**
+ * @property side The side this override is for, or `null` for global overrides
+ */
+class PlannedOverride(
+    val override: FileOverride,
+    val side: Side?,
+    val destPath: File,
+    val action: PlannedAction
+)
+
+/**
+ * Everything an install will do, worked out before anything is changed. See [PackInstaller.plan].
+ *
+ * @property overrides The overrides to install, with side-specific overrides already replacing global overrides
+ * with the same path
+ */
+class InstallPlan(val files: List<PlannedFile>, val overrides: List<PlannedOverride>) {
+    /** The total size of the files that need to be downloaded */
+    val bytesToDownload = files.filter { it.action == PlannedAction.DOWNLOAD }.sumOf { it.file.size }
+
+    /** The total size of the files that need to be copied from the cache or extracted from the pack */
+    val bytesToCopy = files.filter { it.action == PlannedAction.FROM_CACHE }.sumOf { it.file.size } +
+        overrides.filter { it.action == PlannedAction.EXTRACT && !it.override.isDirectory }
+            .sumOf { it.override.size.coerceAtLeast(0) }
+
+    fun count(action: PlannedAction) = files.count { it.action == action } + overrides.count { it.action == action }
+}
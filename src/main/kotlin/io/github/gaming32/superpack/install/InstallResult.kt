@@ -0,0 +1,10 @@
+package io.github.gaming32.superpack.install
+
+import io.github.gaming32.superpack.modpack.ModpackFile
+
+data class InstallResult(
+    val startTime: Long,
+    val downloadedBytes: Long,
+    val downloadedCount: Int,
+    val failedFiles: List<ModpackFile>
+)
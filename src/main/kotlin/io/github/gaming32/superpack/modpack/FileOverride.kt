@@ -9,6 +9,9 @@ class FileOverride(private val entry: ZipEntry) {
 
     val size by entry::size
 
+    /** The CRC-32 of the override's contents, from the pack's central directory, or -1 if it's not known */
+    val crc by entry::crc
+
     val isDirectory get() = entry.isDirectory
 
     fun openInputStream(zipFile: ZipFile): InputStream = zipFile.getInputStream(entry)
@@ -2,6 +2,7 @@ package io.github.gaming32.superpack
 
 import com.jthemedetecor.OsThemeDetector
 import com.sun.jna.Platform
+import io.github.gaming32.superpack.cache.CacheScrubber
 import io.github.gaming32.superpack.themes.Theme
 import io.github.gaming32.superpack.themes.Themes
 import io.github.gaming32.superpack.util.div
@@ -17,7 +18,12 @@ import javax.swing.SwingUtilities
 private val logger = KotlinLogging.logger {}
 
 const val APP_NAME = "Superpack"
-const val MODRINTH_API_ROOT = "https://api.modrinth.com/v2/"
+/**
+ * Can be overridden with the `superpack.modrinthApiRoot` system property, such as to use a local server standing in
+ * for Modrinth.
+ */
+@JvmField
+val MODRINTH_API_ROOT: String = System.getProperty("superpack.modrinthApiRoot", "https://api.modrinth.com/v2/")
 
 @JvmField
 val DATA_DIR = getDataDir()
@@ -38,26 +44,19 @@ val DOWNLOAD_CACHE_DIR = CACHE_DIR / "downloadCache"
 val ICON_CACHE_DIR = CACHE_DIR / "iconCache"
 
 fun main(args: Array<String>) {
-    logger.debug("If you see this, you're in debug mode :)")
-    try {
-        FileReader(SETTINGS_FILE, Charsets.UTF_8).use { SuperpackSettings.INSTANCE.copyFromRead(it) }
-    } catch (e: Exception) {
-        logger.warn("Failed to load settings, using defaults", e)
-        SuperpackSettings.INSTANCE.copyFrom(SuperpackSettings())
+    if (args.firstOrNull() == "--headless") {
+        return headlessMain(args.copyOfRange(1, args.size))
     }
+    logger.debug("If you see this, you're in debug mode :)")
+    loadSettings()
     if (SuperpackSettings.INSTANCE.theme == null) {
         logger.warn("Configured theme was unknown. Falling back to {}.", Themes.DEFAULT.id)
         SuperpackSettings.INSTANCE.theme = Themes.DEFAULT
     }
     saveSettings()
-    try {
-        FileReader(MYPACKS_FILE, Charsets.UTF_8).use { MyPacks.INSTANCE.copyFromRead(it) }
-    } catch (e: Exception) {
-        logger.warn("Failed to load My Packs, using defaults", e)
-        MyPacks.INSTANCE.copyFrom(MyPacks())
-    }
-    MyPacks.INSTANCE.removeMissing()
+    loadMyPacks()
     saveMyPacks()
+    CacheScrubber.startIfDue()
     setTheme(SuperpackSettings.INSTANCE.theme)
     SwingUtilities.invokeLater {
         val mainFrame = SuperpackMainFrame(OsThemeDetector.getDetector())
@@ -72,6 +71,23 @@ fun main(args: Array<String>) {
     }
 }
 
+fun loadSettings() = try {
+    FileReader(SETTINGS_FILE, Charsets.UTF_8).use { SuperpackSettings.INSTANCE.copyFromRead(it) }
+} catch (e: Exception) {
+    logger.warn("Failed to load settings, using defaults", e)
+    SuperpackSettings.INSTANCE.copyFrom(SuperpackSettings())
+}
+
+fun loadMyPacks() {
+    try {
+        FileReader(MYPACKS_FILE, Charsets.UTF_8).use { MyPacks.INSTANCE.copyFromRead(it) }
+    } catch (e: Exception) {
+        logger.warn("Failed to load My Packs, using defaults", e)
+        MyPacks.INSTANCE.copyFrom(MyPacks())
+    }
+    MyPacks.INSTANCE.removeMissing()
+}
+
 private fun getDataDir() = if (Platform.isWindows()) {
     File(System.getenv("APPDATA"), ".superpack")
 } else {
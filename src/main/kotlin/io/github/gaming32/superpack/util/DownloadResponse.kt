@@ -0,0 +1,11 @@
+package io.github.gaming32.superpack.util
+
+import java.io.Closeable
+import java.io.InputStream
+import java.net.URL
+
+/**
+ * @property url The URL that [body] is being downloaded from
+ * @property offset The position in the file that [body] starts at
+ */
+class DownloadResponse(val url: URL, val body: InputStream, val offset: Long) : Closeable by body
@@ -0,0 +1,8 @@
+package io.github.gaming32.superpack.util
+
+import java.io.IOException
+import java.net.URI
+
+class HttpStatusException(val statusCode: Int, val uri: URI, body: String) : IOException(
+    if (body.isEmpty()) "HTTP $statusCode from $uri" else "HTTP $statusCode from $uri: $body"
+)
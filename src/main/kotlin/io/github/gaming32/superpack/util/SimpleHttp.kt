@@ -1,11 +1,23 @@
 package io.github.gaming32.superpack.util
 
+import io.github.gaming32.superpack.SuperpackSettings
 import io.github.oshai.KotlinLogging
 import java.io.IOException
+import java.io.InputStream
+import java.io.InterruptedIOException
 import java.net.MalformedURLException
 import java.net.URL
-import java.net.URLConnection
 import java.net.URLEncoder
+import java.net.http.HttpClient
+import java.net.http.HttpRequest
+import java.net.http.HttpResponse
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.zip.GZIPInputStream
 
 private val logger = KotlinLogging.logger {}
 
@@ -22,6 +34,32 @@ object SimpleHttp {
         }
     }
 
+    @Volatile
+    private var client: HttpClient? = null
+
+    /**
+     * The shared client used for every request. Connections are pooled and kept alive by the client, and HTTP/2 is
+     * used where the server supports it, so that many requests to the same host share a single connection.
+     */
+    @JvmStatic
+    val httpClient: HttpClient get() = client ?: synchronized(this) {
+        client ?: HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .connectTimeout(Duration.ofSeconds(SuperpackSettings.INSTANCE.connectTimeout.toLong()))
+            .build()
+            .also { client = it }
+    }
+
+    /**
+     * Discards the current client, so that the next request picks up changes to the settings. Requests that are
+     * already running are unaffected.
+     */
+    @JvmStatic
+    fun resetClient() = synchronized(this) {
+        client = null
+    }
+
     @JvmStatic
     @Throws(MalformedURLException::class)
     fun createUrl(base: String, route: String, queryParams: Map<String, *>): URL {
@@ -57,16 +95,246 @@ object SimpleHttp {
         return URL(url.toString())
     }
 
+    @JvmStatic
+    fun URL.isHttp() = protocol == "http" || protocol == "https"
+
+    /**
+     * How long to wait for a response to start, and for each read of its body after that. The client's own timeout
+     * only covers the headers, so bodies are wrapped in an [IdleTimeoutInputStream] as well.
+     */
+    private val readTimeout get() = Duration.ofSeconds(SuperpackSettings.INSTANCE.readTimeout.toLong())
+
+    /**
+     * Creates a request builder with the standard headers and timeout already set. Responses to requests made with
+     * this may be gzipped, so their bodies should be read with [decodedBody].
+     */
+    @JvmStatic
+    fun URL.request(): HttpRequest.Builder = HttpRequest.newBuilder(toURI())
+        .header("User-Agent", USER_AGENT)
+        .header("Accept-Encoding", "gzip")
+        .timeout(readTimeout)
+
+    /**
+     * Sends a request, throwing an [HttpStatusException] if the server responds with an error.
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun send(request: HttpRequest): HttpResponse<InputStream> {
+        logger.info("Requesting {}", request.uri())
+        val response = try {
+            httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream())
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            throw InterruptedIOException("Request to ${request.uri()} interrupted").apply { initCause(e) }
+        }
+        response.checkStatus()
+        return response
+    }
+
+    @Throws(HttpStatusException::class)
+    private fun HttpResponse<InputStream>.checkStatus() {
+        if (statusCode() >= 400) {
+            val message = try {
+                decodedBody().use { it.readNBytes(4096).toString(Charsets.UTF_8) }
+            } catch (e: IOException) {
+                ""
+            }
+            throw HttpStatusException(statusCode(), request().uri(), message)
+        }
+    }
+
+    @JvmStatic
+    @Throws(IOException::class)
+    fun HttpResponse<InputStream>.decodedBody(): InputStream =
+        if (headers().firstValue("Content-Encoding").orElse("").equals("gzip", ignoreCase = true)) {
+            GZIPInputStream(watchedBody())
+        } else {
+            watchedBody()
+        }
+
+    /**
+     * The body of [this], which fails if the server stops sending it for longer than the read timeout.
+     */
+    private fun HttpResponse<InputStream>.watchedBody(): InputStream = IdleTimeoutInputStream(body(), readTimeout)
+
     @JvmStatic
     @Throws(IOException::class)
-    fun URL.request(): URLConnection {
-        logger.info("Requesting {}", this)
-        val cnxn = openConnection()
-        cnxn.setRequestProperty("User-Agent", USER_AGENT)
-        return cnxn
+    fun URL.stream(): InputStream = if (isHttp()) {
+        send(request().GET().build()).decodedBody()
+    } else {
+        logger.info("Opening {}", this)
+        openStream()
     }
 
+    /**
+     * Like [stream], but the body counts against the download bandwidth limits. This should be used for downloading
+     * files, rather than for API requests.
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun URL.downloadStream(): InputStream = if (isHttp()) Bandwidth.throttle(stream(), this) else stream()
+
+    /**
+     * Opens [this] for downloading a file, starting at [offset] bytes into it. Servers that don't support ranges
+     * will send the whole file, so callers must check [DownloadResponse.offset] to see where the body actually
+     * starts. Unlike [stream], this never asks for compression, so the body is always the raw file.
+     */
     @JvmStatic
     @Throws(IOException::class)
-    fun URL.stream() = request().getInputStream()!!
+    fun URL.download(offset: Long): DownloadResponse {
+        if (!isHttp()) {
+            logger.info("Opening {} at {}", this, offset)
+            val stream = openStream()
+            try {
+                stream.skipNBytes(offset)
+            } catch (e: IOException) {
+                stream.close()
+                throw e
+            }
+            return DownloadResponse(this, stream, offset)
+        }
+        return toDownloadResponse(send(downloadRequest(offset)), offset)
+    }
+
+    /**
+     * Like [download], but tries each of [urls] until one responds successfully. If a mirror hasn't responded within
+     * [hedgeDelay], or fails, the next one is requested as well, and so on. Whichever responds successfully first is
+     * used, and the rest are cancelled. If [hedgeDelay] is zero, the mirrors are tried one at a time instead.
+     * @param tried Every URL that's requested is added to this, whether it succeeds or not.
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun downloadHedged(
+        urls: List<URL>, offset: Long, hedgeDelay: Duration, tried: MutableCollection<URL>
+    ): DownloadResponse {
+        var failure: IOException? = null
+        fun recordFailure(url: URL, e: IOException) {
+            logger.info("Failed to download {}", url, e)
+            val firstFailure = failure
+            if (firstFailure == null) {
+                failure = e
+            } else {
+                firstFailure.addSuppressed(e)
+            }
+        }
+
+        if (urls.size == 1 || hedgeDelay.isZero || !urls.all { it.isHttp() }) {
+            for (url in urls) {
+                tried += url
+                try {
+                    return url.download(offset)
+                } catch (e: IOException) {
+                    if (Thread.currentThread().isInterrupted) throw e
+                    recordFailure(url, e)
+                }
+            }
+            throw failure!!
+        }
+
+        val pending = LinkedHashMap<CompletableFuture<HttpResponse<InputStream>>, URL>()
+        var nextUrl = 0
+        fun requestNext() {
+            val url = urls[nextUrl++]
+            tried += url
+            logger.info("Requesting {}", url)
+            pending[httpClient.sendAsync(url.downloadRequest(offset), HttpResponse.BodyHandlers.ofInputStream())] = url
+        }
+
+        requestNext()
+        try {
+            while (pending.isNotEmpty()) {
+                val anyDone = CompletableFuture.anyOf(*pending.keys.toTypedArray())
+                try {
+                    if (nextUrl < urls.size) {
+                        anyDone.get(hedgeDelay.toMillis(), TimeUnit.MILLISECONDS)
+                    } else {
+                        anyDone.get()
+                    }
+                } catch (e: TimeoutException) {
+                    logger.info("No response within {} ms, also trying {}", hedgeDelay.toMillis(), urls[nextUrl])
+                    requestNext()
+                    continue
+                } catch (e: ExecutionException) {
+                    // Handled below
+                } catch (e: InterruptedException) {
+                    Thread.currentThread().interrupt()
+                    throw InterruptedIOException("Download interrupted").apply { initCause(e) }
+                }
+                for (future in pending.keys.filter { it.isDone }) {
+                    val url = pending.remove(future)!!
+                    try {
+                        val response = try {
+                            future.join()
+                        } catch (e: CompletionException) {
+                            throw e.cause as? IOException ?: IOException(e.cause)
+                        }
+                        response.checkStatus()
+                        return url.toDownloadResponse(response, offset)
+                    } catch (e: IOException) {
+                        recordFailure(url, e)
+                        // Don't wait out the rest of the hedge delay for a mirror that's already failed
+                        if (nextUrl < urls.size) {
+                            requestNext()
+                        }
+                    }
+                }
+            }
+            throw failure!!
+        } finally {
+            for (future in pending.keys) {
+                // Responses that arrive anyway still hold a connection until their body is closed
+                future.whenComplete { response, _ -> response?.body()?.close() }
+                future.cancel(true)
+            }
+        }
+    }
+
+    /**
+     * Requests bytes [start] to [end] (inclusive) of [this], for downloading a file in several segments at once.
+     * @return The body of the range, or `null` if the server doesn't support ranges.
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun URL.downloadRange(start: Long, end: Long): DownloadResponse? {
+        val response = send(downloadRequest().header("Range", "bytes=$start-$end").GET().build())
+        if (response.statusCode() != 206) {
+            response.body().close()
+            return null
+        }
+        response.checkRangeStart(start)
+        return DownloadResponse(this, Bandwidth.throttle(response.watchedBody(), this), start)
+    }
+
+    private fun URL.downloadRequest() = HttpRequest.newBuilder(toURI())
+        .header("User-Agent", USER_AGENT)
+        .timeout(readTimeout)
+
+    private fun URL.downloadRequest(offset: Long) = downloadRequest()
+        .apply { if (offset > 0) header("Range", "bytes=$offset-") }
+        .GET()
+        .build()
+
+    @Throws(IOException::class)
+    private fun URL.toDownloadResponse(response: HttpResponse<InputStream>, offset: Long): DownloadResponse {
+        val body = Bandwidth.throttle(response.watchedBody(), this)
+        if (response.statusCode() != 206) {
+            return DownloadResponse(this, body, 0L)
+        }
+        response.checkRangeStart(offset)
+        return DownloadResponse(this, body, offset)
+    }
+
+    private fun HttpResponse<InputStream>.checkRangeStart(expected: Long) {
+        val start = headers().firstValue("Content-Range").orElse(null)
+            ?.let { RANGE_START.find(it) }
+            ?.groupValues
+            ?.get(1)
+            ?.toLongOrNull()
+        if (start != expected) {
+            body().close()
+            throw IOException("Server responded with unexpected range $start for requested offset $expected")
+        }
+    }
+
+    private val RANGE_START = Regex("""^bytes (\d+)-""")
 }
@@ -5,7 +5,10 @@ import com.sun.jna.Platform
 import io.github.gaming32.mrpacklib.util.GsonHelper
 import io.github.gaming32.superpack.APP_NAME
 import io.github.gaming32.superpack.ICON_CACHE_DIR
+import io.github.gaming32.superpack.cache.CacheIndex
+import io.github.gaming32.superpack.util.SimpleHttp.decodedBody
 import io.github.gaming32.superpack.util.SimpleHttp.request
+import io.github.gaming32.superpack.util.SimpleHttp.stream
 import io.github.oshai.KotlinLogging
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
@@ -13,8 +16,8 @@ import org.slf4j.helpers.Util
 import java.awt.*
 import java.awt.image.BufferedImage
 import java.io.*
-import java.net.HttpURLConnection
 import java.net.URL
+import java.net.http.HttpRequest
 import java.nio.file.FileVisitResult
 import java.nio.file.Path
 import java.security.DigestInputStream
@@ -118,22 +121,18 @@ fun JTextField.addDocumentListener(listener: DocumentEvent.() -> Unit) =
 
 @Throws(IOException::class)
 fun renderMarkdown(markdown: String): String {
-    val cnxn = GITHUB_MARKDOWN_URL.request()
-    cnxn.doOutput = true
-    cnxn.doInput = true
-    OutputStreamWriter(cnxn.getOutputStream(), Charsets.UTF_8).use { writer ->
-        JsonWriter(writer).use { jsonWriter ->
-            jsonWriter.beginObject()
-            jsonWriter.name("text")
-            jsonWriter.value(markdown)
-            jsonWriter.endObject()
-        }
-    }
-    try {
-        return cnxn.getInputStream().use { it.reader(Charsets.UTF_8).readText() }
-    } catch (e: IOException) {
-        throw IOException((cnxn as HttpURLConnection).errorStream.use { it.reader(Charsets.UTF_8).readText() }, e)
+    val body = StringWriter()
+    JsonWriter(body).use { jsonWriter ->
+        jsonWriter.beginObject()
+        jsonWriter.name("text")
+        jsonWriter.value(markdown)
+        jsonWriter.endObject()
     }
+    val request = GITHUB_MARKDOWN_URL.request()
+        .header("Content-Type", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+        .build()
+    return SimpleHttp.send(request).decodedBody().use { it.reader(Charsets.UTF_8).readText() }
 }
 
 fun String.capitalize() =
@@ -216,7 +215,7 @@ fun loadProjectIcon(iconUrl: URL): CompletableFuture<Image?> =
             if (iconCache.exists()) {
                 return@getFuture ImageIO.read(iconCache)
             }
-            image = ImageIO.read(iconUrl)
+            image = iconUrl.stream().use { ImageIO.read(it) }
             if (image == null) return@getFuture null
             image = image.getScaledInstance(THUMBNAIL_SIZE, THUMBNAIL_SIZE, Image.SCALE_SMOOTH)
         } catch (e: Exception) {
@@ -226,11 +225,13 @@ fun loadProjectIcon(iconUrl: URL): CompletableFuture<Image?> =
         try {
             iconCache.parentFile.mkdirs()
             val bimage = image.toBufferedImage(BufferedImage.TYPE_INT_ARGB)
+            val oldSize = CacheIndex.sizeOf(iconCache)
             ImageIO.write(
                 bimage.toBufferedImage(approximateImageType(bimage)),
                 cacheKey.substring(cacheKey.lastIndexOf('.') + 1),
                 iconCache
             )
+            CacheIndex.fileWritten(iconCache, oldSize)
         } catch (e: Exception) {
             logger.error("Error caching icon $cacheKey", e)
         }